@@ -6,6 +6,7 @@
 import c3po.*;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.EnumSet;
 
 /**
  *
@@ -18,6 +19,57 @@ public class MainWindow extends javax.swing.JFrame {
      */
     public MainWindow() {
         initComponents();
+
+        inputTextArea.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            public void insertUpdate(javax.swing.event.DocumentEvent evt) {
+                try {
+                    var inserted = evt.getDocument().getText(evt.getOffset(), evt.getLength());
+                    sourceEdited(evt.getOffset(), 0, inserted);
+                } catch (javax.swing.text.BadLocationException e) {
+                    tokens = null;
+                }
+            }
+
+            public void removeUpdate(javax.swing.event.DocumentEvent evt) {
+                sourceEdited(evt.getOffset(), evt.getLength(), "");
+            }
+
+            public void changedUpdate(javax.swing.event.DocumentEvent evt) {
+                /* Attribute changes only */
+            }
+        });
+    }
+
+    static final String globalScopeOpen = "\n{\n";
+    static final String globalScopeClose = "\n}\n";
+
+    // Tokens of the current editor text, kept up to date on every edit. null when the text does not lex.
+    private TokenStream tokens;
+    // Names interned by the last full lex, relexing interns every partial identifier typed since then
+    private int namesAfterFullLex;
+
+    private String wrappedSource() {
+        return globalScopeOpen + inputTextArea.getText() + globalScopeClose;
+    }
+
+    private void sourceEdited(int offset, int removed, String inserted) {
+        try {
+            if (tokens == null || Names.size() > 2 * namesAfterFullLex + 1024) {
+                lexDocument();
+            } else {
+                tokens = Lexer.relex(tokens, wrappedSource(), offset + globalScopeOpen.length(), removed, inserted);
+            }
+        } catch (LanguageException e) {
+            tokens = null;
+        }
+    }
+
+    // Starts a new name table, the old ids are only referenced by the tokens replaced here
+    private void lexDocument() throws LanguageException {
+        tokens = null;
+        Names.reset();
+        tokens = Lexer.tokenizeStream(wrappedSource(), true);
+        namesAfterFullLex = Names.size();
     }
 
     /**
@@ -101,29 +153,25 @@ public class MainWindow extends javax.swing.JFrame {
 
     private void compileButtonActionPerformed(java.awt.event.ActionEvent evt) {// GEN-FIRST:event_compileButtonActionPerformed
 
-        var sourceFile = inputTextArea.getText();
-        String source = "\n{\n";
-        source += sourceFile;
-        source += "\n}\n";
-
         try {
-            var tokens = Lexer.tokenize(source, true);
-            var ast = Parser.parse(tokens.toArray(new Token[tokens.size()]));//
+            if (tokens == null) {
+                lexDocument();
+            }
+            var ast = Parser.parseLazy(tokens);
             ((Scope) ast).initAsGlobalScope();
 
-            ast.check(null);
-
             var root = (Scope) ast;
             var builder = new IRBuilder();
 
-            root.genIR(null, builder);
-            var prog = builder.build();
+            root.checkAndGenIR(null, builder);
+            var peephole = new Peephole(EnumSet.allOf(Peephole.Rule.class));
+            var prog = peephole.run(SsaForm.optimize(builder.build()));
             System.out.println(prog);
 
             var asmBuilder = new AssemblyBuilder(prog);
             var asmSource = asmBuilder.build();
             assemblyTextArea.setText(asmSource);
-            diagnosticTextArea.setText("Compiled with success");
+            diagnosticTextArea.setText("Compiled with success, peephole removed " + peephole.removed() + " instructions");
         } catch (LanguageException e) {
             diagnosticTextArea.setText(e.toString());
             // System.err.println(e.toString());
@@ -52,9 +52,9 @@ public class AssemblyBuilder {
         %s: .string "%s"
         """;
 
-        for(var entry : program.readOnlyData.entrySet()){
-            var data = entry.getValue();
-            readOnlySection.append(String.format(fmt, rv32AlignmentCode(data.alignment()), entry.getKey(), data.value()));
+        for(int i = 0; i < program.strings.length; i++){
+            var data = program.strings[i];
+            readOnlySection.append(String.format(fmt, rv32AlignmentCode(data.alignment()), Program.stringLabel(i), data.value()));
         }
     }
 
@@ -67,7 +67,7 @@ public class AssemblyBuilder {
         """;
         for (var entry : program.staticSection.entrySet()) {
             var data = entry.getValue();
-            dataSection.append(String.format(fmt, rv32AlignmentCode(data.alignment()), entry.getKey(), data.size()));
+            dataSection.append(String.format(fmt, rv32AlignmentCode(data.alignment()), entry.getKey().mangledName(), data.size()));
         }
     }
 
@@ -90,6 +90,13 @@ public class AssemblyBuilder {
         textSection.append(String.format(fmt));
     }
 
+    void pop(){
+        final String fmt = """
+        addi sp, sp, 4 # Pop
+        """;
+        textSection.append(fmt);
+    }
+
     void load(){
         final String fmt = """
         lw t0, (sp)  # Load
@@ -99,6 +106,35 @@ public class AssemblyBuilder {
         textSection.append(String.format(fmt));
     }
 
+    void loadSymbol(String label){
+        final String fmt = """
+        la t0, %s       # %s
+        lw t0, (t0)
+        addi sp, sp, -4
+        sw t0, (sp)
+        """;
+        textSection.append(String.format(fmt, label, "Load " + label));
+    }
+
+    void storeSymbol(String label){
+        final String fmt = """
+        lw t0, (sp)     # %s
+        addi sp, sp, 4
+        la t1, %s
+        sw t0, (t1)
+        """;
+        textSection.append(String.format(fmt, "Store " + label, label));
+    }
+
+    void dup(){
+        final String fmt = """
+        lw t0, (sp) # Dup
+        addi sp, sp, -4
+        sw t0, (sp)
+        """;
+        textSection.append(fmt);
+    }
+
     void pushLabel(String label){
         final String fmt = """
         la t0, %s       # %s
@@ -119,7 +155,7 @@ public class AssemblyBuilder {
 
     }
 
-    void inputInt(String label){
+    void inputInt(){
         final String fmt = """
         li a7, 5 # Input_Int
         ecall
@@ -148,48 +184,33 @@ public class AssemblyBuilder {
         textSection.append(fmt);
     }
 
+    // NOTE: The error is only built on the failure path, this runs for every arithmetic op
     private static String translateOpCodeToRV32(OpCode op) throws LanguageException {
-        var err = LanguageException.emitterError("No direct translation to " + op.value);
         switch (op) {
             case ADD: return "add";
             case BIT_AND: return "and";
-            case BIT_NOT: throw err;
             case BIT_OR: return "or";
             case BIT_SH_LEFT: return "sll";
             case BIT_SH_RIGHT: return "srl";
             case BIT_XOR: return "xor";
+            case LOGIC_AND: return "and";
+            case LOGIC_OR: return "or";
+            case NEG: return "neg";
+            case BIT_NOT: return "not";
+            case LOGIC_NOT: return "seqz";
+            case NOT_ZERO: return "snez";
             case BRANCH_EQUAL_ZERO: return "beqz";
             case BRANCH_NOT_ZERO: return "bnez";
-            case CALL: throw err;
             case DIV: return "div";
-            case DUP: throw err;
-            case EQUALS: throw err;
             case GT: return "sgt";
             case LT: return "slt";
-            case GT_EQ: throw err;
-            case LT_EQ: throw err;
-            case INPUT_INT: throw err;
-            case INPUT_STR: throw err;
             case JUMP: return "j";
-            case LOAD: throw err;
-            case LOGIC_AND: throw err;
-            case LOGIC_NOT: throw err;
-            case LOGIC_OR: throw err;
-            case MOD: throw err;
             case MUL: return "mul";
-            case NEG: throw err;
-            case NOT_EQUALS: throw err;
-            case NOT_ZERO: throw err;
-            case POP: throw err;
-            case PRINT_INT: throw err;
-            case PRINT_STR: throw err;
-            case PUSH: throw err;
-            case RET: throw err;
-            case STORE: throw err;
             case SUB: return "sub";
             case LABEL: throw LanguageException.emitterError("Pseudo instruction has no translation");
+            default: break;
         }
-        throw LanguageException.emitterError("Bad instruction %s", op);
+        throw LanguageException.emitterError("No direct translation to %s", op.value);
     }
 
     void arithBinary(OpCode op) throws LanguageException {
@@ -203,6 +224,15 @@ public class AssemblyBuilder {
         textSection.append(String.format(fmt, op.value, translateOpCodeToRV32(op)));
     }
 
+    void arithUnary(OpCode op) throws LanguageException {
+        final String fmt = """
+        lw t0, (sp)    # %s
+        %s t0, t0
+        sw t0, (sp)
+        """;
+        textSection.append(String.format(fmt, op.value, translateOpCodeToRV32(op)));
+    }
+
     void comparison(OpCode op) throws LanguageException{
         final String fmtOrder = """
         lw t0, (sp)    # %s
@@ -282,55 +312,57 @@ public class AssemblyBuilder {
 
     public void buildTextSection() throws LanguageException {
         textSection.append(".text\n");
-        for(var inst : program.instructions){
-            switch (inst.op) {
+        for(int i = 0; i < program.length; i++){
+            var op = program.op(i);
+            var operand = program.operand(i);
+            switch (op) {
             /* Arithmetic */
             case ADD,SUB,MUL,DIV,MOD,BIT_AND,BIT_OR,BIT_SH_LEFT,BIT_SH_RIGHT,BIT_XOR:
-                arithBinary(inst.op);
+                arithBinary(op);
             break;
-            case NEG:
-            break;
-            case BIT_NOT:
+            case NEG, BIT_NOT:
+                arithUnary(op);
             break;
 
             /* Logic */
-            case LOGIC_AND:
-            break;
-            case LOGIC_NOT:
+            case LOGIC_AND, LOGIC_OR: // Booleans are 0 or 1, conditions branch without them
+                arithBinary(op);
             break;
-            case LOGIC_OR:
-            break;
-            case NOT_ZERO:// NOTE Miguel: maybe not necessary
+            case LOGIC_NOT, NOT_ZERO:// NOTE Miguel: maybe not necessary
+                arithUnary(op);
             break;
             case GT,LT,GT_EQ,LT_EQ,EQUALS,NOT_EQUALS:
-                comparison(inst.op);
+                comparison(op);
             break;
 
             /* Control Flow */
             case BRANCH_EQUAL_ZERO, BRANCH_NOT_ZERO:
-                branchZero(inst.op, inst.labelName);
+                branchZero(op, program.labelName(operand));
             break;
             case CALL:
             break;
             case JUMP:
-                jumpLabel(inst.labelName);
+                jumpLabel(program.labelName(operand));
             break;
 
             /* Memory */
             case PUSH:
-                if(inst.labelName != null){
-                    pushLabel(inst.labelName);
-                }
-                else {
-                    pushImmediate(inst.word);
-                }
+                pushImmediate(operand);
+            break;
+            case PUSH_SYMBOL:
+                pushLabel(program.symbols[operand].mangledName());
+            break;
+            case PUSH_STRING:
+                pushLabel(Program.stringLabel(operand));
             break;
             case POP:
+                pop();
             break;
             case LABEL:
-                labelSet(inst.labelName);
+                labelSet(program.labelName(operand));
             break;
             case DUP:
+                dup();
             break;
             case STORE:
                 store();
@@ -338,12 +370,18 @@ public class AssemblyBuilder {
             case LOAD:
                 load();
             break;
+            case LOAD_SYMBOL:
+                loadSymbol(program.symbols[operand].mangledName());
+            break;
+            case STORE_SYMBOL:
+                storeSymbol(program.symbols[operand].mangledName());
+            break;
             case RET:
             break;
 
             /* IO */
             case INPUT_INT:
-                inputInt(inst.labelName);
+                inputInt();
             break;
             case INPUT_STR:
             break;
@@ -357,7 +395,7 @@ public class AssemblyBuilder {
             break;
 
             default:
-            throw new UnsupportedOperationException(inst.op.value);
+            throw new UnsupportedOperationException(op.value);
             }
 
             
@@ -42,7 +42,9 @@ class SymbolInfo{
 	Type[] arguments;
 	boolean init;
 	boolean used;
-	String mangledName;
+	int name = -1; // Names id it was defined with
+	long uid; // Set when storage is reserved for it
+	int order; // Position in the environment it was added to
 
 	SymbolInfo(SymbolKind kind, Type type, Type[] arguments, boolean init, boolean used){
 		this.kind = kind;
@@ -52,6 +54,17 @@ class SymbolInfo{
 		this.used = used;
 	}
 
+	// Assembly label of the symbol, only built when the assembly is written
+	String mangledName(){
+		switch(kind){
+			case FUNCTION: return Names.name(name);
+			case PARAMETER: return String.format("p_%s_%d", Names.name(name), uid);
+			case VAR: return String.format("v_%s_%d", Names.name(name), uid);
+			case TEMP: return String.format("t_%d", uid);
+			default: return null;
+		}
+	}
+
 	static SymbolInfo function(Type type, Type[] arguments){
 		return new SymbolInfo(SymbolKind.FUNCTION, type, arguments, true, true);
 	}
@@ -64,13 +77,17 @@ class SymbolInfo{
 	static SymbolInfo parameter(Type type){
 		return new SymbolInfo(SymbolKind.PARAMETER, type, null, true, false);
 	}
+	static SymbolInfo temporary(Type type){
+		return new SymbolInfo(SymbolKind.TEMP, type, null, true, true);
+	}
 }
 
 enum SymbolKind{
 	FUNCTION("fn"),
 	VAR("var"),
 	TYPE("type"),
-	PARAMETER("parameter");
+	PARAMETER("parameter"),
+	TEMP("temp"); // Made by the emitter, never defined in a scope
 
 	public String value;
 	SymbolKind(String value){
@@ -78,23 +95,67 @@ enum SymbolKind{
 	}
 }
 
+// Symbols keyed by their Names id, open addressing so a lookup hashes no strings and boxes nothing
 class Environment{
-	HashMap<String, SymbolInfo> entries;
+	int[] keys;
+	SymbolInfo[] values;
+	int size;
 
 	public Environment(){
-		this.entries = new HashMap<String, SymbolInfo>();
+		this.keys = new int[8];
+		this.values = new SymbolInfo[8];
+		Arrays.fill(keys, -1);
+	}
+
+	private int slotOf(int name){
+		int mask = keys.length - 1;
+		int hash = name * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while(keys[slot] != -1 && keys[slot] != name){
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	public void addSymbol(int name, SymbolInfo info){
+		info.order = size;
+		info.name = name;
+		int slot = slotOf(name);
+		if(keys[slot] == -1){
+			size += 1;
+		}
+		keys[slot] = name;
+		values[slot] = info;
+		if(size * 2 > keys.length){
+			grow();
+		}
+	}
+
+	private void grow(){
+		var oldKeys = keys;
+		var oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new SymbolInfo[oldKeys.length * 2];
+		Arrays.fill(keys, -1);
+		for(int i = 0; i < oldKeys.length; i++){
+			if(oldKeys[i] != -1){
+				int slot = slotOf(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
 	}
 
-	public void addSymbol(String name, SymbolInfo info){
-		entries.put(name, info);
+	public int size(){
+		return size;
 	}
 
-	public SymbolInfo getSymbol(String name){
-		return entries.get(name);
+	public SymbolInfo getSymbol(int name){
+		return values[slotOf(name)];
 	}
 
-	public boolean hasSymbol(String name){
-		return entries.containsKey(name);
+	public boolean hasSymbol(int name){
+		return keys[slotOf(name)] == name;
 	}
 
 	public String toString(){
@@ -102,8 +163,12 @@ class Environment{
 
 		sb.append("- ID\t kind\t| type\t| init\t| used\t| name\t\n");
 
-		for(var id : entries.keySet()){
-			var info = entries.get(id);
+		for(int i = 0; i < keys.length; i++){
+			if(keys[i] == -1){
+				continue;
+			}
+			var id = Names.name(keys[i]);
+			var info = values[i];
 			var size = "?";
 			try {
 				size = String.format("%d", info.type.dataSize());
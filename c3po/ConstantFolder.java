@@ -0,0 +1,225 @@
+package c3po;
+
+// Folds the constant subtrees of checked expressions before they are emitted, along with the identities
+// x+0, x-0, x*1, x/1, x|0, x~0, x<<0, x>>0, x*0, x&0, x-x and && or || with a literal operand. Integers
+// wrap and divide like the RV32IM instructions AssemblyBuilder emits, so a folded program prints what the
+// unfolded one would.
+final class ConstantFolder {
+	private ConstantFolder(){}
+
+	// Returns what should be emitted instead of e, e itself if nothing folds. The checked tree is left as it
+	// is, a node whose children fold is copied along with its resolved type.
+	static Expression fold(Expression e){
+		if(e instanceof BinaryExpr binary){
+			var left = fold(binary.left);
+			var right = fold(binary.right);
+			if(left != binary.left || right != binary.right){
+				var copy = new BinaryExpr(left, binary.operator, right);
+				copy.type = binary.type;
+				binary = copy;
+			}
+			return foldBinary(binary);
+		}
+		else if(e instanceof UnaryExpr unary){
+			var operand = fold(unary.operand);
+			if(operand != unary.operand){
+				var copy = new UnaryExpr(unary.operator, operand);
+				copy.type = unary.type;
+				unary = copy;
+			}
+			return foldUnary(unary);
+		}
+		else if(e instanceof IndexExpr index){
+			var array = fold(index.array);
+			var offset = fold(index.index);
+			if(array != index.array || offset != index.index){
+				var copy = new IndexExpr(array, offset);
+				copy.type = index.type;
+				return copy;
+			}
+		}
+		return e;
+	}
+
+	private static Expression foldBinary(BinaryExpr e){
+		var op = opCode(e.operator);
+		if(op == null){
+			return e;
+		}
+		var left = e.left;
+		var right = e.right;
+
+		if(isIntLiteral(left) && isIntLiteral(right)){
+			var value = evaluate(op, intValue(left), intValue(right));
+			return Operators.isComparison(e.operator) ? boolLiteral(value != 0) : intLiteral(value);
+		}
+		if(isBoolLiteral(left) && isBoolLiteral(right)){
+			return boolLiteral(evaluate(op, boolValue(left) ? 1 : 0, boolValue(right) ? 1 : 0) != 0);
+		}
+
+		switch(op){
+			case ADD, BIT_OR, BIT_XOR:
+				if(isInt(right, 0)) return left;
+				if(isInt(left, 0)) return right;
+			break;
+			case SUB:
+				if(isInt(right, 0)) return left;
+				if(isPure(left) && sameValue(left, right)) return intLiteral(0);
+			break;
+			case MUL:
+				if(isInt(right, 1)) return left;
+				if(isInt(left, 1)) return right;
+				if((isInt(right, 0) && isPure(left)) || (isInt(left, 0) && isPure(right))) return intLiteral(0);
+			break;
+			case DIV, BIT_SH_LEFT, BIT_SH_RIGHT:
+				if(isInt(right, op == OpCode.DIV ? 1 : 0)) return left;
+			break;
+			case BIT_AND:
+				if((isInt(right, 0) && isPure(left)) || (isInt(left, 0) && isPure(right))) return intLiteral(0);
+			break;
+			case LOGIC_AND, LOGIC_OR: {
+				// The left operand alone decides when it is false for && and true for ||
+				var decides = op == OpCode.LOGIC_OR;
+				if(isBoolLiteral(left)) return boolValue(left) == decides ? left : right;
+				if(isBoolLiteral(right) && boolValue(right) != decides) return left;
+			} break;
+			default: break;
+		}
+		return e;
+	}
+
+	private static Expression foldUnary(UnaryExpr e){
+		var operand = e.operand;
+		switch(e.operator){
+			case PLUS: return operand;
+			case MINUS: return isIntLiteral(operand) ? intLiteral(-intValue(operand)) : e;
+			case TILDE: return isIntLiteral(operand) ? intLiteral(~intValue(operand)) : e;
+			case LOGIC_NOT: return isBoolLiteral(operand) ? boolLiteral(!boolValue(operand)) : e;
+			default: return e;
+		}
+	}
+
+	private static OpCode opCode(TokenType operator){
+		switch(operator){
+			case PLUS: return OpCode.ADD;
+			case MINUS: return OpCode.SUB;
+			case STAR: return OpCode.MUL;
+			case SLASH: return OpCode.DIV;
+			case MODULO: return OpCode.MOD;
+			case BIT_AND: return OpCode.BIT_AND;
+			case BIT_OR: return OpCode.BIT_OR;
+			case TILDE: return OpCode.BIT_XOR;
+			case BIT_SH_LEFT: return OpCode.BIT_SH_LEFT;
+			case BIT_SH_RIGHT: return OpCode.BIT_SH_RIGHT;
+			case LOGIC_AND: return OpCode.LOGIC_AND;
+			case LOGIC_OR: return OpCode.LOGIC_OR;
+			case GT: return OpCode.GT;
+			case LT: return OpCode.LT;
+			case GT_EQ: return OpCode.GT_EQ;
+			case LT_EQ: return OpCode.LT_EQ;
+			case EQ: return OpCode.EQUALS;
+			case NEQ: return OpCode.NOT_EQUALS;
+			default: return null;
+		}
+	}
+
+	// Evaluates like the RV32IM instruction emitted for the op, booleans are 0 and 1. Unary ops ignore b.
+	static int evaluate(OpCode op, int a, int b){
+		switch(op){
+			case NEG: return -a;
+			case BIT_NOT: return ~a;
+			case LOGIC_NOT: return a == 0 ? 1 : 0;
+			case NOT_ZERO: return a != 0 ? 1 : 0;
+			case ADD: return a + b;
+			case SUB: return a - b;
+			case MUL: return a * b;
+			case DIV:
+				if(b == 0){
+					return -1;
+				}
+				return (a == Integer.MIN_VALUE && b == -1) ? a : a / b;
+			case MOD:
+				if(b == 0){
+					return a;
+				}
+				return (a == Integer.MIN_VALUE && b == -1) ? 0 : a % b;
+			case BIT_AND: return a & b;
+			case BIT_OR: return a | b;
+			case BIT_XOR: return a ^ b;
+			case BIT_SH_LEFT: return a << (b & 31);
+			case BIT_SH_RIGHT: return a >>> (b & 31);
+			case LOGIC_AND: return (a != 0 && b != 0) ? 1 : 0;
+			case LOGIC_OR: return (a != 0 || b != 0) ? 1 : 0;
+			case GT: return a > b ? 1 : 0;
+			case LT: return a < b ? 1 : 0;
+			case GT_EQ: return a < b ? 0 : 1;
+			case LT_EQ: return a > b ? 0 : 1;
+			case EQUALS: return a == b ? 1 : 0;
+			case NOT_EQUALS: return a != b ? 1 : 0;
+			default: throw new IllegalArgumentException(op.value);
+		}
+	}
+
+	static boolean isIntLiteral(Expression e){
+		return e instanceof PrimaryExpr p && p.token.type == TokenType.INTEGER;
+	}
+
+	static int intValue(Expression e){
+		return ((PrimaryExpr)e).token.intValue;
+	}
+
+	private static boolean isInt(Expression e, int value){
+		return isIntLiteral(e) && intValue(e) == value;
+	}
+
+	private static boolean isBoolLiteral(Expression e){
+		return e instanceof PrimaryExpr p && (p.token.type == TokenType.TRUE || p.token.type == TokenType.FALSE);
+	}
+
+	private static boolean boolValue(Expression e){
+		return ((PrimaryExpr)e).token.type == TokenType.TRUE;
+	}
+
+	private static PrimaryExpr intLiteral(int value){
+		return new PrimaryExpr(new Token(TokenType.INTEGER, Integer.toString(value), value));
+	}
+
+	private static PrimaryExpr boolLiteral(boolean value){
+		var type = value ? TokenType.TRUE : TokenType.FALSE;
+		return new PrimaryExpr(new Token(type, type.value));
+	}
+
+	// Calls are the only expressions with side effects, anything else can be dropped
+	private static boolean isPure(Expression e){
+		if(e instanceof BinaryExpr binary){
+			return isPure(binary.left) && isPure(binary.right);
+		}
+		else if(e instanceof UnaryExpr unary){
+			return isPure(unary.operand);
+		}
+		else if(e instanceof IndexExpr index){
+			return isPure(index.array) && isPure(index.index);
+		}
+		return e instanceof PrimaryExpr;
+	}
+
+	// Whether both always evaluate to the same value, nothing in between can store to a variable
+	private static boolean sameValue(Expression a, Expression b){
+		if(a instanceof PrimaryExpr pa && b instanceof PrimaryExpr pb){
+			if(pa.token.type == TokenType.ID && pb.token.type == TokenType.ID){
+				return pa.token.name == pb.token.name;
+			}
+			return isIntLiteral(a) && isIntLiteral(b) && intValue(a) == intValue(b);
+		}
+		else if(a instanceof IndexExpr ia && b instanceof IndexExpr ib){
+			return sameValue(ia.array, ib.array) && sameValue(ia.index, ib.index);
+		}
+		else if(a instanceof BinaryExpr ba && b instanceof BinaryExpr bb){
+			return ba.operator == bb.operator && sameValue(ba.left, bb.left) && sameValue(ba.right, bb.right);
+		}
+		else if(a instanceof UnaryExpr ua && b instanceof UnaryExpr ub){
+			return ua.operator == ub.operator && sameValue(ua.operand, ub.operand);
+		}
+		return false;
+	}
+}
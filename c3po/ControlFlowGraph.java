@@ -0,0 +1,294 @@
+package c3po;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Straight line run of IR instructions, only the first one is a jump target and only the last one jumps
+final class BasicBlock {
+	final int id;
+	final int start; // First instruction
+	final int end; // One past the last instruction
+	final ArrayList<BasicBlock> preds = new ArrayList<BasicBlock>();
+	final ArrayList<BasicBlock> succs = new ArrayList<BasicBlock>();
+	BasicBlock idom; // Immediate dominator, null for the entry and unreachable blocks
+	Loop loop; // Innermost loop containing the block, null outside loops
+	int order = -1; // Position in reverse postorder, -1 when unreachable
+
+	BasicBlock(int id, int start, int end){
+		this.id = id;
+		this.start = start;
+		this.end = end;
+	}
+
+	int loopDepth(){
+		return loop == null ? 0 : loop.depth;
+	}
+
+	public String toString(){
+		return "B" + id;
+	}
+}
+
+// Natural loop, the blocks that reach one of the back edges to the header without going through it
+final class Loop {
+	final BasicBlock header;
+	final BitSet blocks = new BitSet(); // Indexed by block id, includes nested loops
+	Loop parent;
+	int depth = 1;
+
+	Loop(BasicBlock header){
+		this.header = header;
+	}
+
+	boolean contains(BasicBlock block){
+		return blocks.get(block.id);
+	}
+}
+
+final class ControlFlowGraph {
+	final Program program;
+	final BasicBlock[] blocks; // In program order, blocks[0] is the entry
+	final BasicBlock[] reversePostorder; // Reachable blocks only
+	final Loop[] loops; // Outer loops come before the loops nested in them
+	private final BasicBlock[] labelBlocks; // Label id to the block it starts
+
+	private ControlFlowGraph(Program program, BasicBlock[] blocks, BasicBlock[] labelBlocks){
+		this.program = program;
+		this.blocks = blocks;
+		this.labelBlocks = labelBlocks;
+		linkEdges();
+		this.reversePostorder = computeOrder();
+		computeDominators();
+		this.loops = computeLoops();
+	}
+
+	static ControlFlowGraph build(Program program){
+		// A block starts at the entry, at every label and after every jump
+		var leaders = new BitSet(program.length + 1);
+		leaders.set(0);
+		for(int i = 0; i < program.length; i++){
+			var op = program.op(i);
+			if(op == OpCode.LABEL){
+				leaders.set(i);
+			}
+			else if(endsBlock(op)){
+				leaders.set(i + 1);
+			}
+		}
+
+		var blocks = new ArrayList<BasicBlock>();
+		var labelBlocks = new BasicBlock[program.labelPrefixes.length];
+		// The entry has no predecessors, a program starting with a loop gets an empty block before it
+		if(program.length == 0 || program.op(0) == OpCode.LABEL){
+			blocks.add(new BasicBlock(0, 0, 0));
+		}
+		int start = 0;
+		while(start < program.length){
+			int end = leaders.nextSetBit(start + 1);
+			if(end < 0 || end > program.length){
+				end = program.length;
+			}
+			var block = new BasicBlock(blocks.size(), start, end);
+			blocks.add(block);
+			if(program.op(start) == OpCode.LABEL){
+				labelBlocks[program.operand(start)] = block;
+			}
+			start = end;
+		}
+		return new ControlFlowGraph(program, blocks.toArray(new BasicBlock[0]), labelBlocks);
+	}
+
+	static boolean endsBlock(OpCode op){
+		switch(op){
+			case JUMP, BRANCH_EQUAL_ZERO, BRANCH_NOT_ZERO, RET: return true;
+			default: return false;
+		}
+	}
+
+	BasicBlock blockOfLabel(int label){
+		return labelBlocks[label];
+	}
+
+	BasicBlock entry(){
+		return blocks[0];
+	}
+
+	// Whether every path from the entry to b goes through a, a block dominates itself
+	boolean dominates(BasicBlock a, BasicBlock b){
+		if(b.order < 0){
+			return false;
+		}
+		while(b != null && b.order >= a.order){
+			if(b == a){
+				return true;
+			}
+			b = b.idom;
+		}
+		return false;
+	}
+
+	private void linkEdges(){
+		for(var block : blocks){
+			var fallsThrough = true;
+			if(block.start < block.end){
+				int last = block.end - 1;
+				var op = program.op(last);
+				if(op == OpCode.JUMP || op == OpCode.BRANCH_EQUAL_ZERO || op == OpCode.BRANCH_NOT_ZERO){
+					link(block, labelBlocks[program.operand(last)]);
+				}
+				fallsThrough = op != OpCode.JUMP && op != OpCode.RET;
+			}
+			if(fallsThrough && block.id + 1 < blocks.length){
+				link(block, blocks[block.id + 1]);
+			}
+		}
+	}
+
+	private static void link(BasicBlock from, BasicBlock to){
+		// A branch to the next block is still a single edge
+		if(!from.succs.contains(to)){
+			from.succs.add(to);
+			to.preds.add(from);
+		}
+	}
+
+	// Depth first walk with an explicit stack, loops in the IR can nest deeper than the call stack
+	private BasicBlock[] computeOrder(){
+		var postorder = new ArrayList<BasicBlock>();
+		var visited = new boolean[blocks.length];
+		var stack = new BasicBlock[blocks.length];
+		var nextSucc = new int[blocks.length];
+		int top = 0;
+		stack[top++] = entry();
+		visited[entry().id] = true;
+		while(top > 0){
+			var block = stack[top - 1];
+			if(nextSucc[block.id] < block.succs.size()){
+				var succ = block.succs.get(nextSucc[block.id]++);
+				if(!visited[succ.id]){
+					visited[succ.id] = true;
+					stack[top++] = succ;
+				}
+			}
+			else {
+				top -= 1;
+				postorder.add(block);
+			}
+		}
+
+		var order = new BasicBlock[postorder.size()];
+		for(int i = 0; i < order.length; i++){
+			order[i] = postorder.get(order.length - 1 - i);
+			order[i].order = i;
+		}
+		return order;
+	}
+
+	// Cooper, Harvey and Kennedy's iterative algorithm over the reverse postorder
+	private void computeDominators(){
+		var entry = entry();
+		entry.idom = entry;
+		var changed = true;
+		while(changed){
+			changed = false;
+			for(int i = 1; i < reversePostorder.length; i++){
+				var block = reversePostorder[i];
+				BasicBlock idom = null;
+				for(var pred : block.preds){
+					if(pred.idom == null){
+						continue;
+					}
+					idom = idom == null ? pred : intersect(pred, idom);
+				}
+				if(idom != block.idom){
+					block.idom = idom;
+					changed = true;
+				}
+			}
+		}
+		entry.idom = null;
+	}
+
+	private BasicBlock intersect(BasicBlock a, BasicBlock b){
+		while(a != b){
+			while(a.order > b.order){
+				a = a.idom;
+			}
+			while(b.order > a.order){
+				b = b.idom;
+			}
+		}
+		return a;
+	}
+
+	private Loop[] computeLoops(){
+		// One loop per header, all of its back edges contribute to the body
+		var headerLoops = new Loop[blocks.length];
+		var found = new ArrayList<Loop>();
+		for(var block : reversePostorder){
+			for(var succ : block.succs){
+				if(!dominates(succ, block)){
+					continue;
+				}
+				var loop = headerLoops[succ.id];
+				if(loop == null){
+					loop = new Loop(succ);
+					loop.blocks.set(succ.id);
+					headerLoops[succ.id] = loop;
+					found.add(loop);
+				}
+				collectBody(loop, block);
+			}
+		}
+
+		// Bigger loops first, so a loop's parent is the last loop seen that contains its header
+		var loops = found.toArray(new Loop[0]);
+		Arrays.sort(loops, (a, b) -> b.blocks.cardinality() - a.blocks.cardinality());
+		for(int i = 0; i < loops.length; i++){
+			var loop = loops[i];
+			for(int j = i - 1; j >= 0; j--){
+				if(loops[j].contains(loop.header)){
+					loop.parent = loops[j];
+					loop.depth = loops[j].depth + 1;
+					break;
+				}
+			}
+			for(int id = loop.blocks.nextSetBit(0); id >= 0; id = loop.blocks.nextSetBit(id + 1)){
+				blocks[id].loop = loop;
+			}
+		}
+		return loops;
+	}
+
+	private void collectBody(Loop loop, BasicBlock latch){
+		var work = new ArrayList<BasicBlock>();
+		if(!loop.blocks.get(latch.id)){
+			loop.blocks.set(latch.id);
+			work.add(latch);
+		}
+		while(!work.isEmpty()){
+			var block = work.remove(work.size() - 1);
+			for(var pred : block.preds){
+				if(pred.order >= 0 && !loop.blocks.get(pred.id)){
+					loop.blocks.set(pred.id);
+					work.add(pred);
+				}
+			}
+		}
+	}
+
+	public String toString(){
+		var sb = new StringBuilder();
+		for(var block : blocks){
+			sb.append(String.format("%s [%d, %d) preds %s succs %s idom %s loop depth %d\n",
+				block, block.start, block.end, block.preds, block.succs, block.idom, block.loopDepth()));
+			for(int i = block.start; i < block.end; i++){
+				sb.append("  ");
+				sb.append(program.instructionString(i));
+				sb.append("\n");
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -1,26 +1,91 @@
 package c3po;
 
-import java.util.Arrays;
-
 sealed interface Expression extends IREmmiter permits BinaryExpr, UnaryExpr, PrimaryExpr, IndexExpr, CallExpr  {
+	// Returns the type resolved by the first call (normally from the checker), later passes get it for free
 	public Type evalType(Scope context) throws LanguageException;
+
+	// Emits a condition as jumping code: control goes to label when it evaluates to whenTrue and falls
+	// through otherwise. && and || never materialize a boolean here, their right operand is only
+	// evaluated when the left one does not decide the result.
+	static void genBranch(Expression cond, Scope context, IRBuilder builder, int label, boolean whenTrue) throws LanguageException {
+		if(cond instanceof BinaryExpr binary && (binary.operator == TokenType.LOGIC_AND || binary.operator == TokenType.LOGIC_OR)){
+			// The left operand decides the result when it is false for && and true for ||
+			var decides = binary.operator == TokenType.LOGIC_OR;
+			if(decides == whenTrue){
+				genBranch(binary.left, context, builder, label, whenTrue);
+				genBranch(binary.right, context, builder, label, whenTrue);
+			}
+			else {
+				int skip = builder.newLabel(decides ? "ORSKIP" : "ANDSKIP", builder.getUniqueIDLabel());
+				genBranch(binary.left, context, builder, skip, decides);
+				genBranch(binary.right, context, builder, label, whenTrue);
+				builder.addInstruction(OpCode.LABEL, skip);
+			}
+		}
+		else if(cond instanceof UnaryExpr unary && unary.operator == TokenType.LOGIC_NOT){
+			genBranch(unary.operand, context, builder, label, !whenTrue);
+		}
+		else if(cond instanceof PrimaryExpr p && (p.token.type == TokenType.TRUE || p.token.type == TokenType.FALSE)){
+			if((p.token.type == TokenType.TRUE) == whenTrue){
+				builder.addInstruction(OpCode.JUMP, label);
+			}
+		}
+		else {
+			genLogicTemps(cond, context, builder);
+			cond.genIR(context, builder);
+			builder.addInstruction(whenTrue ? OpCode.BRANCH_NOT_ZERO : OpCode.BRANCH_EQUAL_ZERO, label);
+		}
+	}
+
+	// Evaluates every && and || used as a value inside expr into a temporary, before anything of expr is
+	// pushed. Their jumping code then runs on an empty stack and the value is a LOAD of the temporary, which
+	// SsaForm promotes like any variable. Expressions have no side effects, so hoisting keeps the result.
+	static void genLogicTemps(Expression expr, Scope context, IRBuilder builder) throws LanguageException {
+		if(expr instanceof BinaryExpr binary && (binary.operator == TokenType.LOGIC_AND || binary.operator == TokenType.LOGIC_OR)){
+			var temp = builder.newTemp(binary.evalType(context));
+			var id = builder.getUniqueIDLabel();
+			int falseLabel = builder.newLabel("FALSE", id);
+			int exitLabel = builder.newLabel("ENDBOOL", id);
+			genBranch(binary, context, builder, falseLabel, false);
+			builder.pushSymbol(temp);
+			builder.addInstruction(OpCode.PUSH, 1);
+			builder.addInstruction(OpCode.STORE);
+			builder.addInstruction(OpCode.JUMP, exitLabel);
+			builder.addInstruction(OpCode.LABEL, falseLabel);
+			builder.pushSymbol(temp);
+			builder.addInstruction(OpCode.PUSH, 0);
+			builder.addInstruction(OpCode.STORE);
+			builder.addInstruction(OpCode.LABEL, exitLabel);
+			builder.logicTemps.put(binary, temp);
+		}
+		else if(expr instanceof BinaryExpr binary){
+			genLogicTemps(binary.left, context, builder);
+			genLogicTemps(binary.right, context, builder);
+		}
+		else if(expr instanceof UnaryExpr unary){
+			genLogicTemps(unary.operand, context, builder);
+		}
+		else if(expr instanceof IndexExpr index){
+			genLogicTemps(index.array, context, builder);
+			genLogicTemps(index.index, context, builder);
+		}
+	}
 }
 
 final class IndexExpr implements Expression {
 	Expression array;
 	Expression index;
+	Type type; // Memoized by evalType
 
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException{
 		array.genIR(context, builder);
-		if(builder.instructions.get(builder.instructions.size() - 1).op == OpCode.LOAD){
+		if(builder.lastOp() == OpCode.LOAD){
 			builder.popInstruction();
 		}
-		index.genIR(context, builder);
-
 		generateMemoryOffset(context, builder);
 		var needsLoading = evalType(context).quals.length == 0;
 		if(needsLoading){
-			builder.addInstruction(new Instruction(OpCode.LOAD));
+			builder.addInstruction(OpCode.LOAD);
 		}
 	}
 
@@ -33,35 +98,49 @@ final class IndexExpr implements Expression {
 		var arrayType = array.evalType(context);
 		var quals = arrayType.quals;
 		if(quals.length < 1){ // No modifiers, no need to offset
+			index.genIR(context, builder);
 			return;
 		}
 
-		quals = Arrays.copyOfRange(quals, 1, quals.length);
-
-		var oType = new Type(arrayType.primitive, quals);
+		var oType = arrayType.inner;
 		var stride = oType.dataSize();
 
-		builder.addInstruction(new Instruction(OpCode.PUSH, stride));
-		builder.addInstruction(new Instruction(OpCode.MUL));
-		builder.addInstruction(new Instruction(OpCode.ADD));
+		// A constant index is scaled here, element 0 is at the array's own address
+		if(ConstantFolder.isIntLiteral(index)){
+			var offset = ConstantFolder.intValue(index) * stride;
+			if(offset != 0){
+				builder.addInstruction(OpCode.PUSH, offset);
+				builder.addInstruction(OpCode.ADD);
+			}
+			return;
+		}
+
+		index.genIR(context, builder);
+		builder.addInstruction(OpCode.PUSH, stride);
+		builder.addInstruction(OpCode.MUL);
+		builder.addInstruction(OpCode.ADD);
 	}
 
 	public Type evalType(Scope context) throws LanguageException {
+		if(type == null){
+			type = resolveType(context);
+		}
+		return type;
+	}
+
+	private Type resolveType(Scope context) throws LanguageException {
 		// o index precisa ser um int sem qualificadores, o array/idexado precisa ter ARRAY como primeiro qualificador, o tipo resultado é o tipo do array sem o primeiro qualificador
 		var indexType = index.evalType(context);
-		if(!indexType.equals(new Type(PrimitiveType.INT, null))){
+		if(!indexType.equals(Type.of(PrimitiveType.INT))){
 			throw LanguageException.checkerError("Index type not allowed");
 		}
 
 		var arrayType = array.evalType(context);
-		Qualifier[] qualsCopy = new Qualifier[arrayType.quals.length - 1];
-
-		for(int i = 0; i < qualsCopy.length; i++){
-			qualsCopy[i] = arrayType.quals[i];
+		if(arrayType.quals.length == 0){
+			throw LanguageException.checkerError("Cannot index object of type %s", arrayType);
 		}
 
-		var typeOut = new Type(arrayType.primitive, qualsCopy);
-		return typeOut;
+		return arrayType.withoutLastQualifier();
 	}
 
 	IndexExpr(Expression array, Expression index){
@@ -73,6 +152,7 @@ final class IndexExpr implements Expression {
 final class CallExpr implements Expression {
 	Expression callable;
 	Expression[] arguments;
+	Type type; // Memoized by evalType
 
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException{
 		throw new UnsupportedOperationException("TODO");
@@ -90,7 +170,14 @@ final class CallExpr implements Expression {
 		return builder.toString();
 	}
 
-	public Type evalType(Scope context) throws LanguageException{
+	public Type evalType(Scope context) throws LanguageException {
+		if(type == null){
+			type = resolveType(context);
+		}
+		return type;
+	}
+
+	private Type resolveType(Scope context) throws LanguageException {
 		Debug.unimplemented();return null;
 	}
 
@@ -104,82 +191,92 @@ final class BinaryExpr implements Expression {
 	TokenType operator;
 	Expression left;
 	Expression right;
+	Type type; // Memoized by evalType
 
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException{
 		if(operator == TokenType.PLUS){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.ADD));
+			builder.addInstruction(OpCode.ADD);
 		}
 		else if(operator == TokenType.MINUS){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.SUB));
+			builder.addInstruction(OpCode.SUB);
 		}
 		else if(operator == TokenType.STAR){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.MUL));
+			builder.addInstruction(OpCode.MUL);
 		}
 		else if(operator == TokenType.SLASH){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.DIV));
+			builder.addInstruction(OpCode.DIV);
 		}
 		else if(operator == TokenType.BIT_AND){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.BIT_AND));
+			builder.addInstruction(OpCode.BIT_AND);
 		}
 		else if(operator == TokenType.BIT_OR){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.BIT_OR));
+			builder.addInstruction(OpCode.BIT_OR);
 		}
 		else if(operator == TokenType.BIT_SH_LEFT){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.BIT_SH_LEFT));
+			builder.addInstruction(OpCode.BIT_SH_LEFT);
 		}
 		else if(operator == TokenType.BIT_SH_RIGHT){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.BIT_SH_RIGHT));
+			builder.addInstruction(OpCode.BIT_SH_RIGHT);
 		}
 		else if(operator == TokenType.TILDE){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.BIT_XOR));
+			builder.addInstruction(OpCode.BIT_XOR);
 		}
 		else if(operator == TokenType.GT){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.GT));
+			builder.addInstruction(OpCode.GT);
 		}
 		else if(operator == TokenType.LT){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.LT));
+			builder.addInstruction(OpCode.LT);
 		}
 		else if(operator == TokenType.GT_EQ){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.GT_EQ));
+			builder.addInstruction(OpCode.GT_EQ);
 		}
 		else if(operator == TokenType.LT_EQ){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.LT_EQ));
+			builder.addInstruction(OpCode.LT_EQ);
 		}
 		else if(operator == TokenType.EQ){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.EQUALS));
+			builder.addInstruction(OpCode.EQUALS);
 		}
 		else if(operator == TokenType.NEQ){
 			left.genIR(context, builder);
 			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.NOT_EQUALS));
+			builder.addInstruction(OpCode.NOT_EQUALS);
+		}
+		else if(operator == TokenType.LOGIC_AND || operator == TokenType.LOGIC_OR){
+			// Only outside of conditions, the statement evaluated it ahead into a temporary
+			var temp = builder.logicTemps.get(this);
+			if(temp == null){
+				throw LanguageException.emitterError("%s was not evaluated ahead of its statement", this);
+			}
+			builder.pushSymbol(temp);
+			builder.addInstruction(OpCode.LOAD);
 		}
 		else{
 			throw new UnsupportedOperationException("NO");
@@ -187,7 +284,14 @@ final class BinaryExpr implements Expression {
 
 	}
 
-	public Type evalType(Scope context) throws LanguageException{
+	public Type evalType(Scope context) throws LanguageException {
+		if(type == null){
+			type = resolveType(context);
+		}
+		return type;
+	}
+
+	private Type resolveType(Scope context) throws LanguageException {
 		var leftType = left.evalType(context);
 		var rightType = right.evalType(context);
 
@@ -195,7 +299,7 @@ final class BinaryExpr implements Expression {
 
 		if(leftType.equals(rightType) && compat && leftType.quals.length == 0 && rightType.quals.length == 0){
 			if(Operators.isComparison(operator)){
-				return new Type(PrimitiveType.BOOL, null);
+				return Type.of(PrimitiveType.BOOL);
 			}
 			else {
 				return leftType;
@@ -220,6 +324,7 @@ final class BinaryExpr implements Expression {
 final class UnaryExpr implements Expression {
 	TokenType operator;
 	Expression operand;
+	Type type; // Memoized by evalType
 
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException{
 		if(operator == TokenType.PLUS){
@@ -227,28 +332,35 @@ final class UnaryExpr implements Expression {
 		}
 		else if(operator == TokenType.MINUS){
 			operand.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.NEG));
+			builder.addInstruction(OpCode.NEG);
 		}
 		else if(operator == TokenType.LOGIC_NOT){
 			operand.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.LOGIC_NOT));
+			builder.addInstruction(OpCode.LOGIC_NOT);
 		}
 		else if(operator == TokenType.TILDE){
 			operand.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.BIT_NOT));
+			builder.addInstruction(OpCode.BIT_NOT);
 		}
 		else{
 			throw LanguageException.emitterError("Not possible");
 		}
 	}
 
-	public Type evalType(Scope context) throws LanguageException{
+	public Type evalType(Scope context) throws LanguageException {
+		if(type == null){
+			type = resolveType(context);
+		}
+		return type;
+	}
+
+	private Type resolveType(Scope context) throws LanguageException {
 		var operandType = operand.evalType(context);
 		if(operandType.quals.length != 0){
-			throw LanguageException.checkerError("Cannot apply operator to aggregate or indirect type: " + operandType.toString());
+			throw LanguageException.checkerError("Cannot apply operator to aggregate or indirect type: %s", operandType);
 		}
 		if(!Operators.unaryCompatible(operator, operandType.primitive)){
-			throw LanguageException.checkerError(String.format("Incompatible type '%s' for operator '%s'", operandType.toString(), operator.value));
+			throw LanguageException.checkerError("Incompatible type '%s' for operator '%s'", operandType, operator.value);
 		}
 		return operandType;
 	}
@@ -265,49 +377,65 @@ final class UnaryExpr implements Expression {
 
 final class PrimaryExpr implements Expression {
 	Token token;
+	Type type; // Memoized by evalType
+	SymbolInfo symbol; // Bound by evalType for identifiers
+
+	// The symbol an identifier refers to, only looked up by name if the expression was never checked
+	SymbolInfo symbol(Scope context){
+		if(symbol == null){
+			symbol = context.searchSymbol(token.name);
+		}
+		return symbol;
+	}
 
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException {
 		if(token.type == TokenType.INTEGER){
-			builder.addInstruction(new Instruction(OpCode.PUSH, token.intValue));
+			builder.addInstruction(OpCode.PUSH, token.intValue);
 		}
 		else if(token.type == TokenType.FLOAT){
 			throw new UnsupportedOperationException("TODO");
 		}
 		else if(token.type == TokenType.STRING){
-			var mangledName = builder.addStringLit(token.stringValue);
-			builder.addInstruction(new Instruction(OpCode.PUSH, mangledName));
+			builder.pushStringLit(token.stringValue);
 		}
 		else if(token.type == TokenType.CHAR){
 			throw new UnsupportedOperationException("TODO");
 		}
 		else if(token.type == TokenType.TRUE || token.type == TokenType.FALSE){
-			builder.addInstruction(new Instruction(OpCode.PUSH, token.type == TokenType.TRUE ? 1 : 0));
+			builder.addInstruction(OpCode.PUSH, token.type == TokenType.TRUE ? 1 : 0);
 		}
 		else if(token.type == TokenType.ID){
-			var info = context.searchSymbol(token.lexeme);
-			builder.addInstruction(new Instruction(OpCode.PUSH, info.mangledName));
-			builder.addInstruction(new Instruction(OpCode.LOAD));
+			var info = symbol(context);
+			builder.pushSymbol(info);
+			builder.addInstruction(OpCode.LOAD);
 		}
 	}
 
 	public Type evalType(Scope context) throws LanguageException {
+		if(type == null){
+			type = resolveType(context);
+		}
+		return type;
+	}
+
+	private Type resolveType(Scope context) throws LanguageException {
 		if(token.type == TokenType.INTEGER){
-			return new Type(PrimitiveType.INT, null);
+			return Type.of(PrimitiveType.INT);
 		}
 		else if(token.type == TokenType.FLOAT){
-			return new Type(PrimitiveType.FLOAT, null);
+			return Type.of(PrimitiveType.FLOAT);
 		}
 		else if(token.type == TokenType.STRING){
-			return new Type(PrimitiveType.STRING, null);
+			return Type.of(PrimitiveType.STRING);
 		}
 		else if(token.type == TokenType.CHAR){
-			return new Type(PrimitiveType.CHAR, null);
+			return Type.of(PrimitiveType.CHAR);
 		}
 		else if(token.type == TokenType.TRUE || token.type == TokenType.FALSE){
-			return new Type(PrimitiveType.BOOL, null);
+			return Type.of(PrimitiveType.BOOL);
 		}
 		else if(token.type == TokenType.ID){
-			var info = context.searchSymbol(token.lexeme);
+			var info = symbol(context);
 			if(info == null){
 				throw LanguageException.checkerError("Symbol not found: %s", token.lexeme);
 			}
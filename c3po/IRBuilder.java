@@ -14,7 +14,8 @@ enum OpCode {
 	EQUALS("equals"), NOT_EQUALS("not_equals"), GT("greater_than"), LT("less_than"), 
 	GT_EQ("greater_than_or_equal"), LT_EQ("less_than_or_equal"),
 
-	PUSH("push"), POP("pop"), DUP("dup"), LOAD("load"), STORE("store"),	BRANCH_NOT_ZERO("branch_not_zero"),
+	PUSH("push"), PUSH_SYMBOL("push_symbol"), PUSH_STRING("push_string"), POP("pop"), DUP("dup"), LOAD("load"), STORE("store"),
+	LOAD_SYMBOL("load_symbol"), STORE_SYMBOL("store_symbol"), BRANCH_NOT_ZERO("branch_not_zero"),
 	BRANCH_EQUAL_ZERO("branch_equal_zero"),
 
 	JUMP("jump"), CALL("call"), RET("ret"),
@@ -23,6 +24,7 @@ enum OpCode {
 	PRINT_INT("print_int"), PRINT_STR("print_str"), INPUT_INT("input_int"), INPUT_STR("input_str");
 
 	public String value;
+	static final OpCode[] ordinals = values(); // Decodes the IR without cloning values() each time
 
 	OpCode(String v){
 		value = v;
@@ -33,41 +35,6 @@ enum OpCode {
 	}
 }
 
-class Instruction {
-	OpCode op;
-	int word;
-	String labelName;
-
-	public String toString(){
-		if(op == OpCode.LABEL){
-			return labelName + ":";
-		}
-		if(op == OpCode.PUSH){
-			if(labelName != null){
-				return op.toString() + " " + labelName;
-			}else{
-				return op.toString() + " " + word;
-			}
-		}
-		return op.toString();
-	}
-
-	public Instruction(OpCode op){
-		this.op = op;
-	}
-
-	public Instruction(OpCode op, int word) {
-		this.op = op;
-		this.word = word;
-	}
-
-	public Instruction(OpCode op, String labelName) {
-		assert(op == OpCode.LABEL);
-		this.op = op;
-		this.labelName = labelName;
-	}
-}
-
 record StaticSectionInfo(int alignment, int size) {}
 
 record ReadOnlyData(int size, int alignment, String initialValue) {
@@ -76,40 +43,84 @@ record ReadOnlyData(int size, int alignment, String initialValue) {
 	}
 }
 
+// The IR is a flat int array with two slots per instruction, the opcode ordinal and its operand.
+// The operand is an immediate for PUSH, a label id for LABEL, JUMP and branches, an index in the
+// symbol table for PUSH_SYMBOL, LOAD_SYMBOL and STORE_SYMBOL and an index in the string pool for
+// PUSH_STRING, otherwise unused.
 class Program {
-	final List<Instruction> instructions;
-	final Map<String, ReadOnlyData> readOnlyData;
-	final Map<String, StaticSectionInfo> staticSection;
+	final int[] code;
+	final int length; // Instruction count
+	final String[] labelPrefixes; // Label names are only built when printed
+	final long[] labelNumbers;
+	final SymbolInfo[] symbols;
+	final ReadOnlyData[] strings;
+	final Map<SymbolInfo, StaticSectionInfo> staticSection;
 
 	public Program(
-		List<Instruction> instructions,
-		Map<String, ReadOnlyData> readOnlyData,
-		Map<String, StaticSectionInfo> staticInfo
+		int[] code,
+		int length,
+		String[] labelPrefixes,
+		long[] labelNumbers,
+		SymbolInfo[] symbols,
+		ReadOnlyData[] strings,
+		Map<SymbolInfo, StaticSectionInfo> staticInfo
 	){
-		this.instructions = instructions;
-		this.readOnlyData = readOnlyData;
+		this.code = code;
+		this.length = length;
+		this.labelPrefixes = labelPrefixes;
+		this.labelNumbers = labelNumbers;
+		this.symbols = symbols;
+		this.strings = strings;
 		this.staticSection = staticInfo;
 	}
 
+	OpCode op(int i){
+		return OpCode.ordinals[code[2 * i]];
+	}
+
+	int operand(int i){
+		return code[2 * i + 1];
+	}
+
+	String labelName(int label){
+		return labelPrefixes[label] + "_" + labelNumbers[label];
+	}
+
+	static String stringLabel(int index){
+		return "__str_lit_" + index;
+	}
+
+	String instructionString(int i){
+		var op = op(i);
+		switch(op){
+			case LABEL: return labelName(operand(i)) + ":";
+			case JUMP, BRANCH_EQUAL_ZERO, BRANCH_NOT_ZERO: return op.toString() + " " + labelName(operand(i));
+			case PUSH: return op.toString() + " " + operand(i);
+			case PUSH_SYMBOL, LOAD_SYMBOL, STORE_SYMBOL: return op.toString() + " " + symbols[operand(i)].mangledName();
+			case PUSH_STRING: return op.toString() + " " + stringLabel(operand(i));
+			default: return op.toString();
+		}
+	}
+
 	public String toString(){
 		var sb = new StringBuilder();
 		sb.append("Read only data:\n");
-		for(var entry : readOnlyData.entrySet()){
-			var data = entry.getValue();
+		for(int i = 0; i < strings.length; i++){
+			var data = strings[i];
 			var line = String.format("  %s: align(%d) size(%d) \"%s\"\n",
-				entry.getKey(), data.alignment(), data.size(), data.initialValue());
+				stringLabel(i), data.alignment(), data.size(), data.initialValue());
 			sb.append(line);
 		}
 		sb.append("Static data:\n");
 		for(var entry : staticSection.entrySet()){
 			var data = entry.getValue();
-			var line = String.format("  %s: align(%d) size(%d)\n", entry.getKey(), data.alignment(), data.size());
+			var line = String.format("  %s: align(%d) size(%d)\n", entry.getKey().mangledName(), data.alignment(), data.size());
 			sb.append(line);
 		}
 		sb.append("Text section:\n");
-		for(var ins : instructions){
+		for(int i = 0; i < length; i++){
 			sb.append("  ");
-			sb.append(ins.toString());
+			sb.append(instructionString(i));
 			sb.append("\n");
 		}
 		return sb.toString();
@@ -119,57 +130,59 @@ class Program {
 public class IRBuilder {
 	private long idCounter = 0; /* State used to mangle symbol names */
 	private long idCounterLabel = 0;
-	ArrayList<Instruction> instructions;
-	HashMap<String, ReadOnlyData> readOnlyData;
-	HashMap<String, StaticSectionInfo> staticSection;
+	private int[] code;
+	private int length;
+	private String[] labelPrefixes;
+	private long[] labelNumbers;
+	private int labelCount;
+	private ArrayList<SymbolInfo> symbols;
+	private IdentityHashMap<SymbolInfo, Integer> symbolIndices;
+	private ArrayList<ReadOnlyData> strings;
+	private HashMap<String, Integer> stringIndices; // Equal literals share their data
+	LinkedHashMap<SymbolInfo, StaticSectionInfo> staticSection;
+	IdentityHashMap<Expression, SymbolInfo> logicTemps; // && and || already evaluated by Expression.genLogicTemps
 
 	public IRBuilder(){
-		instructions = new ArrayList<Instruction>();
-		staticSection = new HashMap<String, StaticSectionInfo>();
-		readOnlyData = new HashMap<String, ReadOnlyData>();
-	}
-
-	private String mangleName(SymbolKind kind, String name) throws LanguageException {
-		switch (kind) {
-		case FUNCTION:
-			return name;
-		case PARAMETER:
-			return String.format("p_%s_%d", name, this.getUniqueID());
-		case TYPE:
-			return null;
-		case VAR:
-			return String.format("v_%s_%d", name, this.getUniqueID());
-		default:
-			throw LanguageException.emitterError("Invalid info spec");
-		}
-	}
-
-	private String mangleName(String literal) {
-		return String.format("__str_lit_%d", this.getUniqueID());
-	}
-
-
-	public String addSymbol(String name, SymbolInfo info) throws LanguageException {
+		code = new int[256];
+		labelPrefixes = new String[32];
+		labelNumbers = new long[32];
+		symbols = new ArrayList<SymbolInfo>();
+		symbolIndices = new IdentityHashMap<SymbolInfo, Integer>();
+		strings = new ArrayList<ReadOnlyData>();
+		stringIndices = new HashMap<String, Integer>();
+		staticSection = new LinkedHashMap<SymbolInfo, StaticSectionInfo>();
+		logicTemps = new IdentityHashMap<Expression, SymbolInfo>();
+	}
+
+	// Reserves static storage for a variable, its label is built from the name and uid at assembly time
+	public void addSymbol(SymbolInfo info) throws LanguageException {
 		switch (info.kind) {
 			case FUNCTION:
 				Debug.unimplemented(); break;
-			case VAR, PARAMETER: {
-				var mangledName = mangleName(info.kind, name);
+			case VAR, PARAMETER, TEMP: {
+				info.uid = getUniqueID();
 				var staticInfo = new StaticSectionInfo(info.type.dataAlignment(), info.type.dataSize());
-				info.mangledName = mangledName;
-				this.staticSection.put(mangledName, staticInfo);
-				return mangledName;
-			}
+				this.staticSection.put(info, staticInfo);
+			} break;
 			case TYPE: /* Nothing */ break;
 		}
-		return null;
 	}
 
-	public String addStringLit(String value){
-		var label = mangleName("__str_lit");
-		var roData = new ReadOnlyData(value.length(), 1, value);
-		readOnlyData.put(label, roData);
-		return label;
+	// Static slot for a value the emitter computes, it has no name and its label is t_<uid>
+	public SymbolInfo newTemp(Type type) throws LanguageException {
+		var info = SymbolInfo.temporary(type);
+		addSymbol(info);
+		return info;
+	}
+
+	public int addStringLit(String value){
+		var index = stringIndices.get(value);
+		if(index == null){
+			index = strings.size();
+			strings.add(new ReadOnlyData(value.length(), 1, value));
+			stringIndices.put(value, index);
+		}
+		return index;
 	}
 
 	public long getUniqueID(){
@@ -182,16 +195,60 @@ public class IRBuilder {
 		return idCounterLabel;
 	}
 
-	public void addInstruction(Instruction inst){
-		instructions.add(inst);
+	// Returns the id of a label named prefix_number, used as the operand of LABEL, JUMP and branches
+	public int newLabel(String prefix, long number){
+		if(labelCount == labelPrefixes.length){
+			labelPrefixes = Arrays.copyOf(labelPrefixes, labelCount * 2);
+			labelNumbers = Arrays.copyOf(labelNumbers, labelCount * 2);
+		}
+		labelPrefixes[labelCount] = prefix;
+		labelNumbers[labelCount] = number;
+		labelCount += 1;
+		return labelCount - 1;
+	}
+
+	public void addInstruction(OpCode op){
+		addInstruction(op, 0);
+	}
+
+	public void addInstruction(OpCode op, int operand){
+		if(2 * length == code.length){
+			code = Arrays.copyOf(code, code.length * 2);
+		}
+		code[2 * length] = op.ordinal();
+		code[2 * length + 1] = operand;
+		length += 1;
+	}
+
+	// Pushes the address of a symbol, named only when the assembly is written
+	public void pushSymbol(SymbolInfo info){
+		var index = symbolIndices.get(info);
+		if(index == null){
+			index = symbols.size();
+			symbols.add(info);
+			symbolIndices.put(info, index);
+		}
+		addInstruction(OpCode.PUSH_SYMBOL, index);
+	}
+
+	public void pushStringLit(String value){
+		addInstruction(OpCode.PUSH_STRING, addStringLit(value));
+	}
+
+	public OpCode lastOp(){
+		return length == 0 ? null : OpCode.ordinals[code[2 * (length - 1)]];
 	}
 
 	public void popInstruction(){
-		instructions.remove(instructions.size() - 1);
+		length -= 1;
 	}
 
 	public Program build(){
-		return new Program(instructions, readOnlyData, staticSection);
+		return new Program(
+			code, length,
+			labelPrefixes, labelNumbers,
+			symbols.toArray(new SymbolInfo[0]),
+			strings.toArray(new ReadOnlyData[0]),
+			staticSection);
 	}
 }
-
@@ -17,7 +17,9 @@ final class ExprStmt implements Statement {
 	}
 
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException {
-		expression.genIR(context, builder);
+		var value = ConstantFolder.fold(expression);
+		Expression.genLogicTemps(value, context, builder);
+		value.genIR(context, builder);
 	}
 }
 
@@ -33,6 +35,11 @@ final class VarAssign implements Statement {
 			throw LanguageException.checkerError("Cannot assign object of type %s with value of type %s", leftType, rightType);
 		}
 
+		// Only scalars are copied by a store, arrays are assigned element by element
+		if(leftType.quals.length > 0){
+			throw LanguageException.checkerError("Cannot assign to object of aggregate type %s", leftType);
+		}
+
 		var isLvalue = (left instanceof PrimaryExpr) || (left instanceof IndexExpr);
 		if(!isLvalue){
 			throw LanguageException.checkerError("Cannot assign to non L-value object of type %s", leftType);
@@ -50,19 +57,21 @@ final class VarAssign implements Statement {
 	}
 
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException {
-		if(left instanceof PrimaryExpr left){
-			var info = context.searchSymbol(left.token.lexeme);
-			var mangledName = info.mangledName;
-
-			builder.addInstruction(new Instruction(OpCode.PUSH, mangledName));
-			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.STORE));
+		var target = ConstantFolder.fold(left);
+		var value = ConstantFolder.fold(right);
+		Expression.genLogicTemps(target, context, builder);
+		Expression.genLogicTemps(value, context, builder);
+		if(target instanceof PrimaryExpr primary){
+			var info = primary.symbol(context);
+			builder.pushSymbol(info);
+			value.genIR(context, builder);
+			builder.addInstruction(OpCode.STORE);
 		}
-		else if (left instanceof IndexExpr){
-			left.genIR(context, builder);
+		else if (target instanceof IndexExpr){
+			target.genIR(context, builder);
 			builder.popInstruction();
-			right.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.STORE));
+			value.genIR(context, builder);
+			builder.addInstruction(OpCode.STORE);
 		}
 		else {
 			throw new RuntimeException("Unreachable code");
@@ -72,8 +81,9 @@ final class VarAssign implements Statement {
 
 final class VarDecl implements Statement {
 	ParserType typeDecl;
-	String[] identifiers;
+	int[] identifiers;
 	Expression[] expressions;
+	SymbolInfo[] symbols; // Bound by check
 
 	public void check(Scope previous) throws LanguageException{
 		var t = Type.fromPrimitiveParserType(this.typeDecl);
@@ -82,17 +92,22 @@ final class VarDecl implements Statement {
 			throw LanguageException.checkerError("Cannot instantiate variable of incomplete type void");
 		}
 
+		symbols = new SymbolInfo[this.identifiers.length];
 		for(int i = 0; i < this.identifiers.length; i++){
 			var id = identifiers[i];
 			var initExpr = this.expressions[i];
 
 			var sym = SymbolInfo.variable(t);
+			symbols[i] = sym;
 
 			if(initExpr != null){
 				sym.init = true;
 				var rhsType = initExpr.evalType(previous);
 				if(!rhsType.equals(t)){
-					throw LanguageException.checkerError(String.format("Cannot initialize variable of type %s with expression of type %s", t, rhsType));
+					throw LanguageException.checkerError("Cannot initialize variable of type %s with expression of type %s", t, rhsType);
+				}
+				if(t.quals.length > 0){
+					throw LanguageException.checkerError("Cannot initialize variable of aggregate type %s", t);
 				}
 			}else{
 				// System.out.println("Variable not initialized "+id);
@@ -108,7 +123,7 @@ final class VarDecl implements Statement {
 		sb.append(typeDecl.toString());
 		sb.append(" {\n");
 		for(int i = 0; i < identifiers.length; i++){
-			var id = identifiers[i];
+			var id = Names.name(identifiers[i]);
 			var expr = expressions[i];
 			if(expr == null){
 				sb.append(id + "\n");
@@ -120,7 +135,7 @@ final class VarDecl implements Statement {
 		return sb.toString();
 	}
 
-	VarDecl(ParserType type, String[] identifiers, Expression[] expressions){
+	VarDecl(ParserType type, int[] identifiers, Expression[] expressions){
 		assert(identifiers.length == expressions.length);
 		this.typeDecl = type;
 		this.identifiers = identifiers;
@@ -132,15 +147,16 @@ final class VarDecl implements Statement {
 		// throw new UnsupportedOperationException("Unimplemented method 'genIR'");
 		for(var i = 0; i < identifiers.length; i++){
 			var id = identifiers[i];
-			var expr = expressions[i];
+			var expr = ConstantFolder.fold(expressions[i]);
 
-			var info = context.searchSymbol(id);
-			var mangledName = builder.addSymbol(id, info);
+			var info = symbols != null ? symbols[i] : context.searchSymbol(id);
+			builder.addSymbol(info);
 
 			if(expr != null){
-				builder.addInstruction(new Instruction(OpCode.PUSH, mangledName));
+				Expression.genLogicTemps(expr, context, builder);
+				builder.pushSymbol(info);
 				expr.genIR(context, builder);
-				builder.addInstruction(new Instruction(OpCode.STORE));
+				builder.addInstruction(OpCode.STORE);
 			}
 		}
 
@@ -209,16 +225,18 @@ final class EchoStmt implements Statement{
 	}
 
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException{
-		expr.genIR(context, builder);
-		var exprType = expr.evalType(context);
+		var value = ConstantFolder.fold(expr);
+		Expression.genLogicTemps(value, context, builder);
+		value.genIR(context, builder);
+		var exprType = value.evalType(context);
 		if(exprType.primitive == PrimitiveType.INT){
-			builder.addInstruction(new Instruction(OpCode.PRINT_INT));
+			builder.addInstruction(OpCode.PRINT_INT);
 		}
 		else if(exprType.primitive == PrimitiveType.STRING){
-			builder.addInstruction(new Instruction(OpCode.PRINT_STR));
+			builder.addInstruction(OpCode.PRINT_STR);
 		}
 		else if(exprType.primitive == PrimitiveType.BOOL){
-			builder.addInstruction(new Instruction(OpCode.PRINT_INT));
+			builder.addInstruction(OpCode.PRINT_INT);
 		}
 		else{
 			throw LanguageException.emitterError("Not suposed to be here");
@@ -251,31 +269,31 @@ final class InputStmt implements Statement{
 
 	}
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException{
-		var inputType = input.evalType(context);
-
-		if(input instanceof PrimaryExpr input){
-			var info = context.searchSymbol(input.token.lexeme);
-			var mangledName = info.mangledName;
+		var target = ConstantFolder.fold(input);
+		var inputType = target.evalType(context);
+		Expression.genLogicTemps(target, context, builder);
 
-			builder.addInstruction(new Instruction(OpCode.PUSH, mangledName));
+		if(target instanceof PrimaryExpr primary){
+			var info = primary.symbol(context);
+			builder.pushSymbol(info);
 			if(inputType.primitive == PrimitiveType.INT){
-				builder.addInstruction(new Instruction(OpCode.INPUT_INT));
+				builder.addInstruction(OpCode.INPUT_INT);
 			}
 			else if(inputType.primitive == PrimitiveType.STRING){
-				builder.addInstruction(new Instruction(OpCode.INPUT_STR));
+				builder.addInstruction(OpCode.INPUT_STR);
 			}
-			builder.addInstruction(new Instruction(OpCode.STORE));
+			builder.addInstruction(OpCode.STORE);
 		}
-		else if (input instanceof IndexExpr input){
-			input.genIR(context, builder);
+		else if (target instanceof IndexExpr){
+			target.genIR(context, builder);
 			builder.popInstruction();
 			if(inputType.primitive == PrimitiveType.INT){
-				builder.addInstruction(new Instruction(OpCode.INPUT_INT));
+				builder.addInstruction(OpCode.INPUT_INT);
 			}
 			else if(inputType.primitive == PrimitiveType.STRING){
-				builder.addInstruction(new Instruction(OpCode.INPUT_STR));
+				builder.addInstruction(OpCode.INPUT_STR);
 			}
-			builder.addInstruction(new Instruction(OpCode.STORE));
+			builder.addInstruction(OpCode.STORE);
 		}
 		else{
 			throw LanguageException.emitterError("Not suposed to be here");
@@ -1,27 +1,40 @@
 package c3po;
 
+// Diagnostics are cheap to create: no stack trace is captured and the message is only
+// formatted when it is read, usually once when the error gets printed.
 public class LanguageException extends Exception {
 	CompilerStage stage;
+	String format;
+	Object[] args;
 
-	LanguageException(CompilerStage stage, String msg){
-		super(msg);
+	LanguageException(CompilerStage stage, String format, Object... args){
+		super(null, null, false, false);
 		this.stage = stage;
+		this.format = format;
+		this.args = args;
 	}
 
-	static LanguageException lexerError(String fmt, Object... args) throws LanguageException {
-		return new LanguageException(CompilerStage.LEXER, String.format(fmt, args));
+	static LanguageException lexerError(String fmt, Object... args){
+		return new LanguageException(CompilerStage.LEXER, fmt, args);
 	}
 
-	static LanguageException parserError(String fmt, Object... args) throws LanguageException {
-		return new LanguageException(CompilerStage.PARSER, String.format(fmt, args));
+	static LanguageException parserError(String fmt, Object... args){
+		return new LanguageException(CompilerStage.PARSER, fmt, args);
 	}
 
-	static LanguageException checkerError(String fmt, Object... args) throws LanguageException {
-		return new LanguageException(CompilerStage.CHECKER, String.format(fmt, args));
+	static LanguageException checkerError(String fmt, Object... args){
+		return new LanguageException(CompilerStage.CHECKER, fmt, args);
 	}
 
-	static LanguageException emitterError(String fmt, Object... args) throws LanguageException {
-		return new LanguageException(CompilerStage.EMITTER, String.format(fmt, args));
+	static LanguageException emitterError(String fmt, Object... args){
+		return new LanguageException(CompilerStage.EMITTER, fmt, args);
+	}
+
+	public String getMessage(){
+		if(args.length == 0){
+			return format;
+		}
+		return String.format(format, args);
 	}
 
 	public String toString(){
@@ -1,26 +1,156 @@
 package c3po;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Lexer {
-	String source;
+	CharSequence source;
+	int end;
 	int current;
 	int previous;
 
-	static boolean isWhitespace(char c){
-		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	// Token being scanned and its literal value
+	int start;
+	int intValue;
+	float realValue;
+	char charValue;
+	String stringValue;
+
+	static final TokenType[] keywords = {
+		TokenType.IF, TokenType.ELSE, TokenType.FOR, TokenType.WHILE, TokenType.FN, TokenType.CONTINUE,
+		TokenType.BREAK, TokenType.RETURN, TokenType.TRUE, TokenType.FALSE, TokenType.DO,
+		TokenType.ECHO, TokenType.INPUT,
+	};
+
+	// Perfect hash over the keywords, the seed is searched once so no two keywords share a slot
+	static final int keywordTableMask = 31;
+	static final TokenType[] keywordTable = new TokenType[keywordTableMask + 1];
+	static int keywordSeed;
+	static int keywordMaxLength;
+
+	static int keywordHash(CharSequence s, int start, int length, int seed){
+		int h = length;
+		h = h * seed + s.charAt(start);
+		h = h * seed + s.charAt(start + (length >> 1));
+		h = h * seed + s.charAt(start + length - 1);
+		return (h ^ (h >>> 5)) & keywordTableMask;
 	}
 
-	static boolean isNum(char c){
-		return c >= '0' && c <= '9';
+	static {
+		for(var key : keywords){
+			keywordMaxLength = Math.max(keywordMaxLength, key.value.length());
+		}
+
+		for(int seed = 1; keywordSeed == 0; seed++){
+			if(seed > 0xffff){
+				throw new IllegalStateException("Could not build keyword table");
+			}
+			Arrays.fill(keywordTable, null);
+			keywordSeed = seed;
+			for(var key : keywords){
+				int slot = keywordHash(key.value, 0, key.value.length(), seed);
+				if(keywordTable[slot] != null){
+					keywordSeed = 0;
+					break;
+				}
+				keywordTable[slot] = key;
+			}
+		}
 	}
 
-	static boolean isAlpha(char c){
-		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
-	};
+	static TokenType keywordOrIdentifier(CharSequence s, int start, int length){
+		if(length > keywordMaxLength){
+			return TokenType.ID;
+		}
+		var key = keywordTable[keywordHash(s, start, length, keywordSeed)];
+		if(key == null || key.value.length() != length){
+			return TokenType.ID;
+		}
+		for(int i = 0; i < length; i++){
+			if(s.charAt(start + i) != key.value.charAt(i)){
+				return TokenType.ID;
+			}
+		}
+		return key;
+	}
+
+	// Character classes driving scan(), one entry per byte value, anything above 0xff is CC_OTHER
+	static final byte CC_OTHER = 0;
+	static final byte CC_SPACE = 1;
+	static final byte CC_DIGIT = 2;
+	static final byte CC_ALPHA = 3;  // Letters and '_'
+	static final byte CC_SINGLE = 4; // Always a one char token
+	static final byte CC_PREFIX = 5; // One char token, or two char token depending on the next char
+	static final byte CC_STRING = 6;
+	static final byte CC_CHAR = 7;
+
+	static final byte[] charClass = new byte[256];
+	static final TokenType[] singleToken = new TokenType[256];
+	static final String[] pairFollow = new String[256];
+	static final TokenType[][] pairToken = new TokenType[256][];
+
+	static void single(char c, TokenType t){
+		charClass[c] = CC_SINGLE;
+		singleToken[c] = t;
+	}
+
+	// `follow.charAt(i)` after `c` produces pairs[i], otherwise `c` alone is `t`
+	static void pair(char c, TokenType t, String follow, TokenType... pairs){
+		charClass[c] = CC_PREFIX;
+		singleToken[c] = t;
+		pairFollow[c] = follow;
+		pairToken[c] = pairs;
+	}
+
+	static {
+		charClass[' '] = CC_SPACE;
+		charClass['\t'] = CC_SPACE;
+		charClass['\n'] = CC_SPACE;
+		charClass['\r'] = CC_SPACE;
+		for(char c = '0'; c <= '9'; c++){
+			charClass[c] = CC_DIGIT;
+		}
+		for(char c = 'a'; c <= 'z'; c++){
+			charClass[c] = CC_ALPHA;
+			charClass[Character.toUpperCase(c)] = CC_ALPHA;
+		}
+		charClass['_'] = CC_ALPHA;
+		charClass['"'] = CC_STRING;
+		charClass['\''] = CC_CHAR;
+
+		single(':', TokenType.COLON);
+		single(';', TokenType.SEMICOLON);
+		single(',', TokenType.COMMA);
+		single('^', TokenType.CARET);
+		single('.', TokenType.DOT);
+		single('(', TokenType.PAREN_OPEN);
+		single(')', TokenType.PAREN_CLOSE);
+		single('[', TokenType.SQUARE_OPEN);
+		single(']', TokenType.SQUARE_CLOSE);
+		single('{', TokenType.CURLY_OPEN);
+		single('}', TokenType.CURLY_CLOSE);
+		single('+', TokenType.PLUS);
+		single('-', TokenType.MINUS);
+		single('*', TokenType.STAR);
+		single('%', TokenType.MODULO);
+		single('~', TokenType.TILDE);
+
+		pair('/', TokenType.SLASH, "/", TokenType.COMMENT);
+		pair('>', TokenType.GT, ">=", TokenType.BIT_SH_RIGHT, TokenType.GT_EQ);
+		pair('<', TokenType.LT, "<=", TokenType.BIT_SH_LEFT, TokenType.LT_EQ);
+		pair('=', TokenType.ASSIGN, "=", TokenType.EQ);
+		pair('!', TokenType.LOGIC_NOT, "=", TokenType.NEQ);
+		pair('&', TokenType.BIT_AND, "&", TokenType.LOGIC_AND);
+		pair('|', TokenType.BIT_OR, "|", TokenType.LOGIC_OR);
+	}
+
+	static byte classOf(char c){
+		return c < 256 ? charClass[c] : CC_OTHER;
+	}
 
 	boolean done(){
-		return current >= source.length();
+		return current >= end;
 	}
 
 	char advance(){
@@ -47,136 +177,192 @@ public class Lexer {
 		return source.charAt(current + delta);
 	}
 
-	Token next() throws LanguageException {
+	// Scans one token, its text is source[start, current) and literal values are left in the value fields.
+	// Whitespace is skipped in bulk before the token and never produces a token of its own.
+	TokenType scan() throws LanguageException {
+		while(current < end && classOf(source.charAt(current)) == CC_SPACE){
+			current += 1;
+		}
+
+		start = current;
 		char c = advance();
-		// System.out.print(c);
 		if(c == 0){
-			return new Token(TokenType.EOF);
+			return TokenType.EOF;
 		}
 
-		switch(c){
-			case ':': return new Token(TokenType.COLON);
-			case ';': return new Token(TokenType.SEMICOLON);
-			case ',': return new Token(TokenType.COMMA);
-			case '^': return new Token(TokenType.CARET);
-			case '.': return new Token(TokenType.DOT);
-			
-			case '(': return new Token(TokenType.PAREN_OPEN);
-			case ')': return new Token(TokenType.PAREN_CLOSE);
-			case '[': return new Token(TokenType.SQUARE_OPEN);
-			case ']': return new Token(TokenType.SQUARE_CLOSE);
-			case '{': return new Token(TokenType.CURLY_OPEN);
-			case '}': return new Token(TokenType.CURLY_CLOSE);
-
-			case '+': return new Token(TokenType.PLUS);
-			case '-': return new Token(TokenType.MINUS);
-			case '*': return new Token(TokenType.STAR);
-			case '%': return new Token(TokenType.MODULO);
-			case '/':
-			if(advanceMatching('/')){
-				return tokenizeLineComment();
-			} else {
-				return new Token(TokenType.SLASH);
+		switch(classOf(c)){
+			case CC_SINGLE: return singleToken[c];
+			case CC_PREFIX: {
+				int k = pairFollow[c].indexOf(peek(0));
+				if(k < 0){
+					return singleToken[c];
+				}
+				advance();
+				var type = pairToken[c][k];
+				if(type == TokenType.COMMENT){
+					return tokenizeLineComment();
+				}
+				return type;
 			}
-
-			case '>':
-			if(advanceMatching('>')){
-				return new Token(TokenType.BIT_SH_RIGHT);
-			} else if(advanceMatching('=')){
-				return new Token(TokenType.GT_EQ);
-			} else {
-				return new Token(TokenType.GT);
+			case CC_DIGIT: {
+				current -= 1;
+				return tokenizeNumber();
 			}
-
-			case '<':
-			if(advanceMatching('<')){
-				return new Token(TokenType.BIT_SH_LEFT);
-			} else if(advanceMatching('=')){
-				return new Token(TokenType.LT_EQ);
-			} else {
-				return new Token(TokenType.LT);
+			case CC_ALPHA: {
+				current -= 1;
+				return tokenizeIdentifier();
 			}
+			case CC_STRING: return tokenizeString();
+			case CC_CHAR: return tokenizeChar();
+			default: return TokenType.UNKNOWN;
+		}
+	}
 
-			case '=':
-			if(advanceMatching('=')){
-				return new Token(TokenType.EQ);
-			} else {
-				return new Token(TokenType.ASSIGN);
-			}
+	public static TokenStream tokenizeStream(CharSequence source, boolean stripComments) throws LanguageException {
+		return tokenizeRange(source, 0, source.length(), stripComments);
+	}
 
-			case '!':
-			if(advanceMatching('=')){
-				return new Token(TokenType.NEQ);
-			} else {
-				return new Token(TokenType.LOGIC_NOT);
+	static final int parallelChunkSize = 1 << 20;
+
+	record Chunk(TokenStream tokens, LanguageException error){}
+
+	// Lexes source[from, to), the stream ends with an EOF token at `to` unless a NUL char stopped it early
+	static TokenStream tokenizeRange(CharSequence source, int from, int to, boolean stripComments) throws LanguageException {
+		var lex = new Lexer(source);
+		lex.current = from;
+		lex.end = to;
+		var tokens = new TokenStream(source, stripComments, to - from);
+
+		while(true){
+			var type = lex.scan();
+			if(type == TokenType.COMMENT && stripComments){
+				continue;
+			}
+			if(type == TokenType.UNKNOWN){
+				throw LanguageException.lexerError("Unrecognized char");
 			}
 
-			case '~': return new Token(TokenType.TILDE);
-			case '&':
-			if(advanceMatching('&')){
-				return new Token(TokenType.LOGIC_AND);
-			} else {
-				return new Token(TokenType.BIT_AND);
+			tokens.add(lex, type);
+
+			if(type == TokenType.EOF){
+				break;
 			}
+		}
 
-			case '|':
-			if(advanceMatching('|')){
-				return new Token(TokenType.LOGIC_OR);
-			} else {
-				return new Token(TokenType.BIT_OR);
+		return tokens;
+	}
+
+	// Splits the source right after newlines and lexes the chunks on the common pool. No token crosses
+	// a newline (comments end on it), so the chunk streams can simply be concatenated.
+	public static TokenStream tokenizeParallel(CharSequence source, boolean stripComments) throws LanguageException {
+		int length = source.length();
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+		int chunks = Math.min(parallelism * 4, length / parallelChunkSize);
+		if(parallelism < 2 || chunks < 2){
+			return tokenizeStream(source, stripComments);
+		}
+
+		var bounds = new int[chunks + 1];
+		bounds[chunks] = length;
+		for(int i = 1; i < chunks; i++){
+			int pos = Math.max(bounds[i - 1], (int)((long)length * i / chunks));
+			while(pos < length && source.charAt(pos - 1) != '\n'){
+				pos += 1;
 			}
+			bounds[i] = pos;
+		}
 
-			default: {
-				if(isWhitespace(c)){
-					return new Token(TokenType.WS);
-				}
-				else if (isNum(c)){
-					current -= 1;
-					return tokenizeNumber();
-				}
-				else if (c == '"'){
-					return tokenizeString();
-				}
-				else if (c == '\''){
-					return tokenizeChar();
-				}
-				else if(isAlpha(c) || c == '_') {
-					current -= 1;
-					return tokenizeIdentifier();
+		var parts = new ArrayList<ForkJoinTask<Chunk>>();
+		for(int i = 0; i < chunks; i++){
+			int from = bounds[i];
+			int to = bounds[i + 1];
+			parts.add(ForkJoinPool.commonPool().submit(() -> {
+				try {
+					return new Chunk(tokenizeRange(source, from, to, stripComments), null);
+				} catch (LanguageException e){
+					return new Chunk(null, e);
 				}
+			}));
+		}
+
+		var tokens = new TokenStream(source, stripComments, 0);
+		for(int i = 0; i < chunks; i++){
+			var chunk = parts.get(i).join();
+			if(chunk.error() != null){
+				throw chunk.error();
+			}
+			var part = chunk.tokens();
+
+			tokens.reserve(tokens.size() + part.size());
+			int eof = part.size() - 1;
+			boolean last = i == chunks - 1 || part.start(eof) < bounds[i + 1];
+			tokens.addRange(part, 0, last ? part.size() : eof, 0);
+			if(last){
+				break;
 			}
 		}
 
-		return new Token(TokenType.UNKNOWN);
+		return tokens;
 	}
 
-	public static List<Token> tokenize(String source, boolean stripComments) throws LanguageException {
+	// Updates a token stream after `removed` chars at `offset` were replaced by `inserted`, source is the
+	// text after the edit. No token spans a newline (comments end on it), so lexing restarts at the edited
+	// line and stops as soon as a token starts where one started before the edit, the remaining old
+	// tokens are reused with shifted offsets.
+	public static TokenStream relex(TokenStream previous, CharSequence source, int offset, int removed, String inserted) throws LanguageException {
+		int delta = inserted.length() - removed;
+		int editEnd = offset + inserted.length();
+
+		int lineStart = offset;
+		while(lineStart > 0 && source.charAt(lineStart - 1) != '\n'){
+			lineStart -= 1;
+		}
+
+		int first = previous.indexAtOrAfter(lineStart, 0);
+		var tokens = new TokenStream(source, previous.stripComments, 0);
+		tokens.reserve(previous.size());
+		tokens.addRange(previous, 0, first, 0);
+
 		var lex = new Lexer(source);
-		var tokens = new ArrayList<Token>();
+		lex.current = lineStart;
+		int resync = -1;
 
 		while(true){
-			var tk = lex.next();
-			if(tk.type == TokenType.WS){
+			var type = lex.scan();
+			if(type == TokenType.COMMENT && previous.stripComments){
 				continue;
 			}
-			if(tk.type == TokenType.COMMENT && stripComments){
-				continue;
+			if(type == TokenType.UNKNOWN){
+				throw LanguageException.lexerError("Unrecognized char");
 			}
-			if(tk.type == TokenType.UNKNOWN){
-				throw new LanguageException(CompilerStage.LEXER, String.format("Unrecognized char"));
+
+			if(lex.start >= editEnd){
+				int oldStart = lex.start - delta;
+				int k = previous.indexAtOrAfter(oldStart, first);
+				if(k < previous.size() && previous.start(k) == oldStart){
+					resync = k;
+					break;
+				}
 			}
 
-			tokens.add(tk);
+			tokens.add(lex, type);
 
-			if(tk.type == TokenType.EOF){
+			if(type == TokenType.EOF){
 				break;
 			}
 		}
 
+		if(resync >= 0){
+			tokens.addRange(previous, resync, previous.size(), delta);
+		}
 		return tokens;
 	}
 
-	Token tokenizeLineComment(){
+	public static List<Token> tokenize(CharSequence source, boolean stripComments) throws LanguageException {
+		return tokenizeStream(source, stripComments).toList();
+	}
+
+	TokenType tokenizeLineComment(){
 		previous = current;
 		while(!done()){
 			char c = advance();
@@ -185,18 +371,17 @@ public class Lexer {
 			}
 		}
 
-		var lexeme = source.substring(previous, current);
-		return new Token(TokenType.COMMENT, lexeme);
+		return TokenType.COMMENT;
 	}
 
-	Token tokenizeNumber(){
+	TokenType tokenizeNumber(){
 		previous = current;
 		boolean isFloat = false;
 		var digits = new StringBuilder();
 
 		while(!done()){
 			char c = advance();
-			if(isNum(c)){
+			if(classOf(c) == CC_DIGIT){
 				digits.append(c);
 			}
 			else if(c == '.'){
@@ -212,44 +397,47 @@ public class Lexer {
 			}
 		}
 
-		var lexeme = source.substring(previous, current);
 		var numText = digits.toString();
 
 		if(isFloat){
-			float val = Float.parseFloat(numText);
-			return new Token(TokenType.FLOAT, lexeme, val);
+			realValue = Float.parseFloat(numText);
+			return TokenType.FLOAT;
 		} else {
-			int val = Integer.parseInt(numText);
-			return new Token(TokenType.INTEGER, lexeme, val);
+			intValue = Integer.parseInt(numText);
+			return TokenType.INTEGER;
 		}
 	}
 
-	Token tokenizeString() throws LanguageException {
+	TokenType tokenizeString() throws LanguageException {
 		previous = current;
 
+		// Plain runs between escapes are copied as slices, so multi byte characters are decoded as a whole
 		var chars = new StringBuilder();
+		int run = current;
+		int runEnd = -1;
 
 		while(!done()){
 			char c = advance();
 
 			if(c == '"'){
+				runEnd = current - 1;
 				break;
 			} else if (c == '\n'){
-				throw new LanguageException(CompilerStage.LEXER, "Multi line strings are not allowed.");
+				throw LanguageException.lexerError("Multi line strings are not allowed.");
 			} else if (c == '\\'){
+				chars.append(text(run, current - 1));
 				char esc = escapeSequence(advance());
 				if(esc == 0){
-					throw new LanguageException(CompilerStage.LEXER, "Invalid escape sequence");
+					throw LanguageException.lexerError("Invalid escape sequence");
 				}
 				chars.append(esc);
-			} else {
-				chars.append(c);
+				run = current;
 			}
 		}
+		chars.append(text(run, runEnd < 0 ? current : runEnd));
 
-		var lexeme = source.substring(previous - 1, current);
-		var value = chars.toString();
-		return new Token(TokenType.STRING, lexeme, value);
+		stringValue = chars.toString();
+		return TokenType.STRING;
 	}
 
 	static char escapeSequence(char c){
@@ -264,54 +452,55 @@ public class Lexer {
 		}
 	}
 
-	Token tokenizeChar() throws LanguageException {
+	TokenType tokenizeChar() throws LanguageException {
 		previous = current;
 
 		char value = advance();
 		if(value == 0){
-			throw new LanguageException(CompilerStage.LEXER, "Unterminated char literal");
+			throw LanguageException.lexerError("Unterminated char literal");
+		}
+		if(value >= 0x80 && source instanceof SourceBuffer){
+			// Raw UTF-8 bytes, decode the whole sequence back into one char
+			int start = current - 1;
+			while((peek(0) & 0xc0) == 0x80){
+				advance();
+			}
+			value = text(start, current).charAt(0);
 		}
 		if(value == '\\'){
 			char next = advance();
 			value = escapeSequence(next);
 			if(value == 0){
-				throw new LanguageException(CompilerStage.LEXER, "Invalid escape sequence");
+				throw LanguageException.lexerError("Invalid escape sequence");
 			}
 		}
 		if(!advanceMatching('\'')){
-			throw new LanguageException(CompilerStage.LEXER, "Char literal is too long");
+			throw LanguageException.lexerError("Char literal is too long");
 		}
 
-		var lexeme = source.substring(previous - 1, current);
-
-		return new Token(TokenType.CHAR, lexeme, value);
+		charValue = value;
+		return TokenType.CHAR;
 	}
 
-	Token tokenizeIdentifier(){
+	TokenType tokenizeIdentifier(){
 		previous = current;
-		while(!done()){
-			char c = advance();
-			if(isAlpha(c) || isNum(c) || c == '_'){
-				continue;
-			} else {
-				current -= 1;
+		while(current < end){
+			var cc = classOf(source.charAt(current));
+			if(cc != CC_ALPHA && cc != CC_DIGIT){
 				break;
 			}
+			current += 1;
 		}
 
-		var lexeme = source.substring(previous, current);
-		var type = TokenType.ID;
-
-		for(var key : TokenType.values()){
-			if(lexeme.equals(key.value)){
-				type = key;
-			}
-		}
+		return keywordOrIdentifier(source, previous, current - previous);
+	}
 
-		return new Token(type, lexeme);
+	String text(int start, int end){
+		return source.subSequence(start, end).toString();
 	}
 
-	Lexer(String source){
+	Lexer(CharSequence source){
 		this.source = source;
+		this.end = source.length();
 	}
 }
@@ -1,9 +1,8 @@
 package c3po;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.EnumSet;
 
 public class Main {
     public static void main(String[] args) {
@@ -13,7 +12,9 @@ public class Main {
                 "\nAvailable Commands:\n"+
                 "    compile        Compile to risc-v assembly\n"+
                 "    check          Type-check only\n"+
-                "    parse          Parse only");
+                "    parse          Parse only\n"+
+                "\nPeephole rules are picked with -Dc3po.peephole=<all|none|rule,...>,\n"+
+                "which also reports how many instructions they removed");
             System.exit(1);
         }
 
@@ -33,26 +34,42 @@ public class Main {
             System.exit(1);
         }
 
+        EnumSet<Peephole.Rule> peepholeRules = null;
         try {
-            var source = "\n{\n" + new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8) + "\n}\n";
+            peepholeRules = Peephole.Rule.parse(System.getProperty("c3po.peephole", "all"));
+        }
+        catch(IllegalArgumentException e){
+            System.err.println("Unknown peephole rule in '" + System.getProperty("c3po.peephole") + "'");
+            System.exit(1);
+        }
+
+        try {
+            // The global scope braces are added virtually around the mapped file
+            var source = SourceBuffer.map(Paths.get(file), "\n{\n", "\n}\n");
 
-            var tokens = Lexer.tokenize(source, true);
-            var ast = Parser.parse(tokens.toArray(new Token[tokens.size()]));//
+            var tokens = Lexer.tokenizeParallel(source, true);
+            var ast = parseOnly ? Parser.parseParallel(tokens) : Parser.parseLazy(tokens);
 			((Scope)ast).initAsGlobalScope();
             if(parseOnly){
                 return;
             }
 
-            ast.check(null);
+            var root = (Scope)ast;
             if(checkOnly){
+                root.checkParallel(null);
                 return;
             }
 
-            var root = (Scope)ast;
+            // Only the assembly is wanted, so checking and emitting share one walk
             var builder = new IRBuilder();
-
-            root.genIR(null, builder);
-            var prog = builder.build();
+            root.checkAndGenIR(null, builder);
+            var prog = SsaForm.optimize(builder.build());
+            var peephole = new Peephole(peepholeRules);
+            prog = peephole.run(prog);
+            // Reported only when the rules are picked, so compile stays quiet by default
+            if(System.getProperty("c3po.peephole") != null){
+                System.err.println("Peephole removed " + peephole.removed() + " instructions");
+            }
             // System.out.println(prog);
 
             var asmBuilder = new AssemblyBuilder(prog);
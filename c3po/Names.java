@@ -0,0 +1,135 @@
+package c3po;
+
+import java.util.Arrays;
+
+// Compiler-wide table of identifier names. Every distinct name gets a dense int id when it is lexed and
+// the rest of the pipeline keys on that id, the text is only needed again for messages and assembly.
+// Lookups hash the characters in place, a String is only created the first time a name is seen.
+// The table is split in stripes with their own locks so the parallel lexer rarely contends.
+// A table lives for one compilation unit. The command line compiles once per process, the IDE keeps
+// interning while the document is relexed and calls reset() before lexing the whole document again.
+public final class Names {
+	private static final int stripeCount = 64;
+	private static final Stripe[] stripes = new Stripe[stripeCount];
+	static {
+		for(int i = 0; i < stripeCount; i++){
+			stripes[i] = new Stripe();
+		}
+	}
+
+	private static String[] names = new String[1024];
+	private static int count;
+
+	private Names(){}
+
+	static int intern(CharSequence s, int start, int end){
+		int hash = 0;
+		for(int i = start; i < end; i++){
+			hash = 31 * hash + s.charAt(i);
+		}
+		var stripe = stripes[(hash ^ (hash >>> 16)) & (stripeCount - 1)];
+		synchronized(stripe){
+			return stripe.intern(s, start, end, hash);
+		}
+	}
+
+	static int intern(String s){
+		return intern(s, 0, s.length());
+	}
+
+	static synchronized String name(int id){
+		return names[id];
+	}
+
+	public static synchronized int size(){
+		return count;
+	}
+
+	// Forgets every name, ids handed out before are meaningless afterwards so nothing lexed earlier may be
+	// used again. Must not run while something is being lexed.
+	public static synchronized void reset(){
+		names = new String[1024];
+		count = 0;
+		for(int i = 0; i < stripeCount; i++){
+			stripes[i] = new Stripe();
+		}
+	}
+
+	private static synchronized int add(String name){
+		if(count == names.length){
+			names = Arrays.copyOf(names, count * 2);
+		}
+		names[count] = name;
+		count += 1;
+		return count - 1;
+	}
+
+	// Open addressing table from name to id
+	private static final class Stripe {
+		String[] keys = new String[16];
+		int[] hashes = new int[16];
+		int[] ids = new int[16];
+		int size;
+
+		int intern(CharSequence s, int start, int end, int hash){
+			int mask = keys.length - 1;
+			int slot = slotOf(hash, mask);
+			while(keys[slot] != null){
+				if(hashes[slot] == hash && matches(keys[slot], s, start, end)){
+					return ids[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			var name = s.subSequence(start, end).toString();
+			int id = add(name);
+			keys[slot] = name;
+			hashes[slot] = hash;
+			ids[slot] = id;
+			size += 1;
+			if(size * 2 > keys.length){
+				grow();
+			}
+			return id;
+		}
+
+		// The low bits already picked the stripe
+		static int slotOf(int hash, int mask){
+			return ((hash ^ (hash >>> 16)) >>> 6) & mask;
+		}
+
+		static boolean matches(String key, CharSequence s, int start, int end){
+			if(key.length() != end - start){
+				return false;
+			}
+			for(int i = 0; i < key.length(); i++){
+				if(key.charAt(i) != s.charAt(start + i)){
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void grow(){
+			var oldKeys = keys;
+			var oldHashes = hashes;
+			var oldIds = ids;
+			keys = new String[oldKeys.length * 2];
+			hashes = new int[oldKeys.length * 2];
+			ids = new int[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for(int i = 0; i < oldKeys.length; i++){
+				if(oldKeys[i] == null){
+					continue;
+				}
+				int slot = slotOf(oldHashes[i], mask);
+				while(keys[slot] != null){
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				hashes[slot] = oldHashes[i];
+				ids[slot] = oldIds[i];
+			}
+		}
+	}
+}
@@ -44,31 +44,29 @@ class Operators {
 		public int rbp(){ return right; }
 	}
 
-	static Power infixPower(TokenType t) {
-		for(var entry : infixOperators){
-			if(entry.op == t){
-				return new Power(entry.lbp, entry.rbp);
-			}
+	// Binding powers indexed by TokenType ordinal, null when the token is not such an operator
+	static final Power[] infixTable = powerTable(infixOperators);
+	static final Power[] prefixTable = powerTable(prefixOperators);
+	static final Power[] postfixTable = powerTable(postfixOperators);
+
+	static Power[] powerTable(OpInfo[] operators){
+		var table = new Power[TokenType.values().length];
+		for(var entry : operators){
+			table[entry.op.ordinal()] = new Power(entry.lbp, entry.rbp);
 		}
-		return null;
+		return table;
+	}
+
+	static Power infixPower(TokenType t) {
+		return infixTable[t.ordinal()];
 	}
 
 	static Power prefixPower(TokenType t) {
-		for(var entry : prefixOperators){
-			if(entry.op == t){
-				return new Power(entry.lbp, entry.rbp);
-			}
-		}
-		return null;
+		return prefixTable[t.ordinal()];
 	}
 
 	static Power postfixPower(TokenType t) {
-		for(var entry : postfixOperators){
-			if(entry.op == t){
-				return new Power(entry.lbp, entry.rbp);
-			}
-		}
-		return null;
+		return postfixTable[t.ordinal()];
 	}
 
 	static boolean isComparison(TokenType op){
@@ -84,31 +82,11 @@ class Operators {
 	record TypeCompat(TokenType op, PrimitiveType[] accept){}
 
 	public static boolean binaryCompatible(TokenType tk, PrimitiveType type){
-		for(int i = 0; i < binaryCompat.length; i++){
-			var entry = binaryCompat[i];
-			if(tk == entry.op){
-				for(var acceptType : entry.accept){
-					if(type == acceptType){
-						return true;
-					}
-				}
-			}
-		}
-		return false;
+		return (binaryCompatMask[tk.ordinal()] & (1 << type.ordinal())) != 0;
 	}
 
 	public static boolean unaryCompatible(TokenType tk, PrimitiveType type){
-		for(int i = 0; i < unaryCompat.length; i++){
-			var entry = unaryCompat[i];
-			if(tk == entry.op){
-				for(var acceptType : entry.accept){
-					if(type == acceptType){
-						return true;
-					}
-				}
-			}
-		}
-		return false;
+		return (unaryCompatMask[tk.ordinal()] & (1 << type.ordinal())) != 0;
 	}
 
 	static private final PrimitiveType[] arithTypes = {
@@ -172,4 +150,18 @@ class Operators {
 
 		new TypeCompat(TokenType.LOGIC_NOT, logicTypes),
 	};
+
+	// Bit n of an entry is set when the operator accepts the PrimitiveType of ordinal n
+	static private final int[] binaryCompatMask = compatTable(binaryCompat);
+	static private final int[] unaryCompatMask = compatTable(unaryCompat);
+
+	static int[] compatTable(TypeCompat[] compat){
+		var table = new int[TokenType.values().length];
+		for(var entry : compat){
+			for(var acceptType : entry.accept){
+				table[entry.op.ordinal()] |= 1 << acceptType.ordinal();
+			}
+		}
+		return table;
+	}
 }
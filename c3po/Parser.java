@@ -1,76 +1,95 @@
 package c3po;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Parser {
 	int current;
 	int previous;
-	Token[] tokens;
+	TokenStream tokens;
+
+	// Top level functions whose bodies were skipped, set only when skimming
+	ArrayList<FuncDef> skimmed;
 
 	boolean done(){
-		return current >= tokens.length;
+		return current >= tokens.size();
 	}
 
-	Token advance(){
-		if(current >= tokens.length){
-			return new Token(TokenType.EOF);
+	// Token indices past the end read as EOF
+	TokenType typeOf(int index){
+		if(index < 0 || index >= tokens.size()){
+			return TokenType.EOF;
 		}
-		current += 1;
-		return tokens[current - 1];
+		return tokens.type(index);
 	}
 
-	Token peek(int delta){
-		int pos = current + delta;
-		if(pos < 0 || pos >= tokens.length){
-			return new Token(TokenType.EOF);
+	int advance(){
+		if(current >= tokens.size()){
+			return -1;
 		}
-		return tokens[pos];
+		current += 1;
+		return current - 1;
+	}
+
+	TokenType peek(int delta){
+		return typeOf(current + delta);
 	}
 
-	Token advanceExpected(TokenType t) throws LanguageException {
+	int advanceExpected(TokenType t) throws LanguageException {
 		var tk = advance();
-		if(tk.type != t){
-			var msg = String.format("Expected %s, got %s", t.value, tk.type.value);
-			throw LanguageException.parserError(msg);
+		if(typeOf(tk) != t){
+			throw LanguageException.parserError("Expected %s, got %s", t.value, typeOf(tk).value);
 		}
 		return tk;
 	}
 
 	boolean advanceMatching(TokenType t){
-		var tk = advance();
-		if(tk.type == t){
+		if(peek(0) == t){
+			current += 1;
 			return true;
 		}
-		current -= 1;
 		return false;
 	}
 
-	IfStmt parseIf() throws LanguageException {
+	Expression parseIfHeader() throws LanguageException {
 		advanceExpected(TokenType.IF);
 		advanceExpected(TokenType.PAREN_OPEN);
-		if(peek(0).type == TokenType.PAREN_CLOSE){
+		if(peek(0) == TokenType.PAREN_CLOSE){
 			throw LanguageException.parserError("If with an empty condition is not allowed.");
 		}
 
 		var cond = parseExpression();
 		advanceExpected(TokenType.PAREN_CLOSE);
+		return cond;
+	}
 
-		var body = parseScope();
-		Statement elseBranch = null;
+	// Called when the body of an if (or else if) is closed, the whole chain is kept flat and only
+	// nested into IfStmts once it ends
+	Statement closeIf(ArrayList<Expression> conds, ArrayList<Scope> bodies, Scope body, ArrayList<Block> blocks) throws LanguageException {
+		bodies.add(body);
+		if(!advanceMatching(TokenType.ELSE)){
+			return foldIf(conds, bodies, null);
+		}
 
-		if(advanceMatching(TokenType.ELSE)){
-			if(peek(0).type == TokenType.IF){
-				elseBranch = parseIf();
-			}
-			else {
-				elseBranch = parseScope();
-			}
+		if(peek(0) == TokenType.IF){
+			conds.add(parseIfHeader());
+			openBlock(blocks, elseBody -> closeIf(conds, bodies, elseBody, blocks));
+		}
+		else {
+			openBlock(blocks, elseBody -> foldIf(conds, bodies, elseBody));
 		}
+		return null;
+	}
 
-		return new IfStmt(cond, body, elseBranch);
+	static Statement foldIf(ArrayList<Expression> conds, ArrayList<Scope> bodies, Statement elseBranch){
+		for(int i = conds.size() - 1; i >= 0; i--){
+			elseBranch = new IfStmt(conds.get(i), bodies.get(i), elseBranch);
+		}
+		return elseBranch;
 	}
 
-	ForStmt parseFor() throws LanguageException{
+	void openFor(ArrayList<Block> blocks) throws LanguageException{
 		advanceExpected(TokenType.FOR);
 		advanceExpected(TokenType.PAREN_OPEN);
 		var fir = parseInlineStatement();
@@ -86,77 +105,78 @@ public class Parser {
 			throw LanguageException.parserError("This type of statement cannot appear here");
 		}
 		advanceExpected(TokenType.PAREN_CLOSE);
-		var body = parseScope();
-		return new ForStmt(fir, cond, aft, body);
+		openBlock(blocks, body -> new ForStmt(fir, cond, aft, body));
 	}
 
-	DoStmt parseDo() throws LanguageException{
+	void openDo(ArrayList<Block> blocks) throws LanguageException{
 		advanceExpected(TokenType.DO);
-		var body = parseScope();
-		advanceExpected(TokenType.WHILE);
-		advanceExpected(TokenType.PAREN_OPEN);
-		var cond = parseExpression();
-		advanceExpected(TokenType.PAREN_CLOSE);
-		advanceExpected(TokenType.SEMICOLON);
-		return new DoStmt(cond, body);
+		openBlock(blocks, body -> {
+			advanceExpected(TokenType.WHILE);
+			advanceExpected(TokenType.PAREN_OPEN);
+			var cond = parseExpression();
+			advanceExpected(TokenType.PAREN_CLOSE);
+			advanceExpected(TokenType.SEMICOLON);
+			return new DoStmt(cond, body);
+		});
 	}
 
-	WhileStmt parseWhile() throws LanguageException {
+	void openWhile(ArrayList<Block> blocks) throws LanguageException {
 		advanceExpected(TokenType.WHILE);
 		advanceExpected(TokenType.PAREN_OPEN);
 		var cond = parseExpression();
 		advanceExpected(TokenType.PAREN_CLOSE);
-		var body = parseScope();
-		return new WhileStmt(cond, body);
+		openBlock(blocks, body -> new WhileStmt(cond, body));
 	}
 
-    Statement parseAssignmentOrExprStatementOrVarDecl() throws LanguageException {
-		int rewindPoint = current;
-		try {
+	// Decides by lookahead, so every statement is parsed once: a type (ID followed by ^ or [INTEGER]
+	// qualifiers) followed by an ID is a declaration, an expression followed by = is an assignment.
+	Statement parseAssignmentOrExprStatementOrVarDecl() throws LanguageException {
+		if(isVarDeclAhead()){
 			return parseVarDecl();
-		} catch (LanguageException e) {
-			current = rewindPoint;
 		}
 
-		try {
-			var expr = parseExpression();
-			advanceExpected(TokenType.SEMICOLON);
-			current -= 1; /* Rewind, but ensure ; */
-			return new ExprStmt(expr);
-		} catch (LanguageException e) {
-			current = rewindPoint;
+		var expr = parseExpression();
+		if(advanceMatching(TokenType.ASSIGN)){
+			var right = parseExpression();
+			return new VarAssign(expr, right);
 		}
+		return new ExprStmt(expr);
+	}
 
-		try {
-			return parseAssignment();
-		} catch (LanguageException e) {
-			current = rewindPoint;
+	boolean isVarDeclAhead(){
+		if(peek(0) != TokenType.ID){
+			return false;
 		}
 
-		throw LanguageException.parserError("Invalid syntax");
-    }
-
-	VarAssign parseAssignment() throws LanguageException {
-		var left = parseExpression();
-		advanceExpected(TokenType.ASSIGN);
-		var right = parseExpression();
-		return new VarAssign(left, right);
+		int i = 1;
+		while(true){
+			if(peek(i) == TokenType.CARET){
+				i += 1;
+			}
+			else if(peek(i) == TokenType.SQUARE_OPEN && peek(i + 1) == TokenType.INTEGER && peek(i + 2) == TokenType.SQUARE_CLOSE){
+				i += 3;
+			}
+			else {
+				break;
+			}
+		}
+		return peek(i) == TokenType.ID;
 	}
 
 	VarDecl parseVarDecl() throws LanguageException {
 		var type = parseType();
-		var identifiers = new ArrayList<String>();
+		var identifiers = new ArrayList<Integer>();
 		var expressions = new ArrayList<Expression>();
 
 		while(!done()){
-			if(peek(0).type == TokenType.SEMICOLON){
+			if(peek(0) == TokenType.SEMICOLON){
 				break;
 			}
 			if(advanceMatching(TokenType.EOF)){
 				throw LanguageException.parserError("Unterminated Declaration");
 			}
 
-			identifiers.add(advanceExpected(TokenType.ID).lexeme);
+			identifiers.add(tokens.name(advanceExpected(TokenType.ID)));
 			if(advanceMatching(TokenType.ASSIGN)){
 				var left = parseExpression();
 				expressions.add(left);
@@ -172,7 +192,7 @@ public class Parser {
 			}
 		}
 
-		var ids = identifiers.toArray(new String[identifiers.size()]);
+		var ids = identifiers.stream().mapToInt(Integer::intValue).toArray();
 		var exprs = expressions.toArray(new Expression[expressions.size()]);
 		return new VarDecl(type, ids, exprs);
 	}
@@ -215,65 +235,70 @@ public class Parser {
 		return statement;
 	}
 
-	Scope parseScope() throws LanguageException {
-		advanceExpected(TokenType.CURLY_OPEN);
-
-		var statements = new ArrayList<Statement>();
-
-		while(!done()){
-			var lookahead = peek(0);
-
-			if(advanceMatching(TokenType.CURLY_CLOSE)){
-				break;
-			}
-			if(peek(0).type == TokenType.EOF){
-				throw LanguageException.parserError("Unclosed Scope");
-			}
+	// Builds the statement of a block once its closing brace is reached, or returns null when the
+	// statement goes on in another block (else branches)
+	interface BlockEnd {
+		Statement close(Scope body) throws LanguageException;
+	}
 
-			/* Subscope */
-			if(lookahead.type == TokenType.CURLY_OPEN){
-				statements.add(parseScope());
-				continue;
-			}
+	record Block(ArrayList<Statement> statements, BlockEnd end){}
 
-			/* If */
-			if(lookahead.type == TokenType.IF){
-				var stmt = parseIf();
-				statements.add(stmt);
-				continue;
-			}
-
-			/* For */
-			if(lookahead.type == TokenType.FOR){
-				statements.add(parseFor());
-				continue;
-			}
+	void openBlock(ArrayList<Block> blocks, BlockEnd end) throws LanguageException {
+		advanceExpected(TokenType.CURLY_OPEN);
+		blocks.add(new Block(new ArrayList<Statement>(), end));
+	}
 
-			/* Do */
-			if(lookahead.type == TokenType.DO){
-				statements.add(parseDo());
-				continue;
-			}
+	// Nested blocks live on an explicit stack instead of the Java stack, so nesting depth is only
+	// limited by the heap
+	Scope parseScope() throws LanguageException {
+		var blocks = new ArrayList<Block>();
+		openBlock(blocks, body -> body);
 
-			/* While */
-			if(lookahead.type == TokenType.WHILE){
-				statements.add(parseWhile());
-				continue;
-			}
+		while(true){
+			var block = blocks.get(blocks.size() - 1);
 
-			/* FuncDef */
-			if(lookahead.type == TokenType.FN){
-				statements.add(parseFn());
+			if(advanceMatching(TokenType.CURLY_CLOSE)){
+				blocks.remove(blocks.size() - 1);
+				var body = new Scope(block.statements().toArray(new Statement[block.statements().size()]));
+				var statement = block.end().close(body);
+				if(statement == null){
+					continue;
+				}
+				if(blocks.isEmpty()){
+					return (Scope)statement;
+				}
+				blocks.get(blocks.size() - 1).statements().add(statement);
 				continue;
 			}
 
-			/* Statement */ {
-				statements.add(parseInlineStatement());
-				continue;
+			switch(peek(0)){
+				case EOF: throw LanguageException.parserError("Unclosed Scope");
+
+				/* Subscope */
+				case CURLY_OPEN: openBlock(blocks, body -> body); break;
+
+				case IF: {
+					var conds = new ArrayList<Expression>();
+					var bodies = new ArrayList<Scope>();
+					conds.add(parseIfHeader());
+					openBlock(blocks, body -> closeIf(conds, bodies, body, blocks));
+				} break;
+
+				case FOR: openFor(blocks); break;
+				case DO: openDo(blocks); break;
+				case WHILE: openWhile(blocks); break;
+				case FN: {
+					if(skimmed != null && blocks.size() == 1){
+						skimFn(blocks);
+					} else {
+						openFn(blocks);
+					}
+				} break;
+
+				/* Statement */
+				default: block.statements().add(parseInlineStatement()); break;
 			}
 		}
-
-		return new Scope(statements.toArray(new Statement[statements.size()]));
 	}
 
 	ParserType parseType() throws LanguageException {
@@ -289,7 +314,7 @@ public class Parser {
 			if(advanceMatching(TokenType.SQUARE_OPEN)){
 				var num = advanceExpected(TokenType.INTEGER);
 				advanceExpected(TokenType.SQUARE_CLOSE);
-				qualifiers.add(Qualifier.array((int)num.intValue));
+				qualifiers.add(Qualifier.array(tokens.intValue(num)));
 				continue;
 			}
 			break;
@@ -298,153 +323,265 @@ public class Parser {
 		Collections.reverse(qualifiers);
 		var quals = qualifiers.toArray(new Qualifier[qualifiers.size()]);
 		
-		return new ParserType(typeName.lexeme, quals);
+		return new ParserType(tokens.lexeme(typeName), quals);
 	}
 
 	FuncDef.ParameterList parseParameters() throws LanguageException {
 		advanceExpected(TokenType.PAREN_OPEN);
 		var types = new ArrayList<ParserType>();
-		var identifiers = new ArrayList<String>();
+		var identifiers = new ArrayList<Integer>();
 
-		if(peek(0).type != TokenType.PAREN_CLOSE){
+		if(peek(0) != TokenType.PAREN_CLOSE){
 			// Parse first arg
 			types.add(parseType());
-			identifiers.add(advanceExpected(TokenType.ID).lexeme);
+			identifiers.add(tokens.name(advanceExpected(TokenType.ID)));
 
 			while(!done()){
-				if(peek(0).type == TokenType.PAREN_CLOSE){
+				if(peek(0) == TokenType.PAREN_CLOSE){
 					break;
 				}
-				if(peek(0).type == TokenType.EOF){
+				if(peek(0) == TokenType.EOF){
 					throw LanguageException.parserError("Unclosed parameter list");
 				}
 
 				advanceExpected(TokenType.COMMA);
 				types.add(parseType());
-				identifiers.add(advanceExpected(TokenType.ID).lexeme);
+				identifiers.add(tokens.name(advanceExpected(TokenType.ID)));
 			}
 		}
 
 		advanceExpected(TokenType.PAREN_CLOSE);
 
 		var paramTypes = types.toArray(new ParserType[types.size()]);
-		var paramIds = identifiers.toArray(new String[identifiers.size()]);
+		var paramIds = identifiers.stream().mapToInt(Integer::intValue).toArray();
 
 		return new FuncDef.ParameterList(paramTypes, paramIds);
 	}
 
-	FuncDef parseFn() throws LanguageException {
+	void openFn(ArrayList<Block> blocks) throws LanguageException {
 		advanceExpected(TokenType.FN);
 		var type = parseType();
-		var name = advanceExpected(TokenType.ID);
+		var name = tokens.name(advanceExpected(TokenType.ID));
 		var arguments = parseParameters();
-		var body = parseScope();
-
-		return new FuncDef(name.lexeme, arguments, type, body);
+		openBlock(blocks, body -> new FuncDef(name, arguments, type, body));
 	}
 
-	Expression parseExpression() throws LanguageException {
-		return parsePratt(0);
-	}
+	// Parses the header of a top level function and jumps over its body, which is parsed on first access.
+	// When the braces do not balance the body is parsed in place, so the error is the one a normal parse gives.
+	void skimFn(ArrayList<Block> blocks) throws LanguageException {
+		int start = current;
+		advanceExpected(TokenType.FN);
+		var type = parseType();
+		var name = tokens.name(advanceExpected(TokenType.ID));
+		var arguments = parseParameters();
 
-	Expression[] parseExpressionList(TokenType close) throws LanguageException {
-		var exprs = new ArrayList<Expression>();
+		int end = matchingBrace(current);
+		if(end < 0){
+			current = start;
+			openFn(blocks);
+			return;
+		}
 
-		if(peek(0).type != close){
-			var first = parseExpression();
-			exprs.add(first);
+		var fn = new FuncDef(name, arguments, type, tokens, current);
+		skimmed.add(fn);
+		blocks.get(blocks.size() - 1).statements().add(fn);
+		current = end + 1;
+	}
 
-			while(!done()){
-				if(peek(0).type == close){
-					break;
-				}
-				if(peek(0).type == TokenType.EOF){
-					throw LanguageException.parserError("Unclosed expression list");
+	// Index of the } closing the { at index open, -1 if there is none
+	int matchingBrace(int open){
+		if(typeOf(open) != TokenType.CURLY_OPEN){
+			return -1;
+		}
+		int depth = 0;
+		for(int i = open; i < tokens.size(); i++){
+			var t = tokens.type(i);
+			if(t == TokenType.CURLY_OPEN){
+				depth += 1;
+			}
+			else if(t == TokenType.CURLY_CLOSE){
+				depth -= 1;
+				if(depth == 0){
+					return i;
 				}
-
-				advanceExpected(TokenType.COMMA);
-
-				var e = parseExpression();
-				exprs.add(e);
 			}
 		}
+		return -1;
+	}
 
-		advanceExpected(close);
-
-		return exprs.toArray(new Expression[exprs.size()]);
+	Expression parseExpression() throws LanguageException {
+		return parsePratt(0);
 	}
 
-	// Uses pratt parsing to quickly parse binary, unary and indexing expressions
+	enum PendingKind { PREFIX, BINARY, GROUP, INDEX, CALL }
+
+	// Operator still waiting for its right side, minBp is the binding power to go back to once it is reduced
+	record Pending(PendingKind kind, int minBp, TokenType op, Expression left, ArrayList<Expression> args){}
+
+	// Uses pratt parsing to quickly parse binary, unary and indexing expressions.
+	// Pending operators and parentheses are kept on an explicit stack instead of recursing.
 	Expression parsePratt(int minBp) throws LanguageException {
-		var token = advance();
-		Expression left;
-		if(token.isPrimary()){
-			left = new PrimaryExpr(token);
-		}
-		else if (token.type == TokenType.PAREN_OPEN){
-			left = parsePratt(0);
-			advanceExpected(TokenType.PAREN_CLOSE);
-		}
-		else {
-			var power = Operators.prefixPower(token.type);
-			if(power == null){
-				throw LanguageException.parserError("Not a prefix operator " + token.type.value);
-			}
-			var right = parsePratt(power.rbp());
-			left = new UnaryExpr(token.type, right);
-		}
+		var stack = new ArrayList<Pending>();
+		Expression left = null;
+		boolean expectOperand = true;
 
 		while(true){
+			if(expectOperand){
+				var token = advance();
+				var tokenType = typeOf(token);
+				if(Token.isPrimary(tokenType)){
+					left = new PrimaryExpr(tokens.get(token));
+					expectOperand = false;
+				}
+				else if (tokenType == TokenType.PAREN_OPEN){
+					stack.add(new Pending(PendingKind.GROUP, minBp, tokenType, null, null));
+					minBp = 0;
+				}
+				else {
+					var power = Operators.prefixPower(tokenType);
+					if(power == null){
+						throw LanguageException.parserError("Not a prefix operator %s", tokenType.value);
+					}
+					stack.add(new Pending(PendingKind.PREFIX, minBp, tokenType, null, null));
+					minBp = power.rbp();
+				}
+				continue;
+			}
+
 			var op = peek(0);
-			if(op.type == TokenType.EOF){ break; }
 
-			var postPower = Operators.postfixPower(op.type);
-			if(postPower != null){
-				if(postPower.lbp() < minBp){
-					break;
-				}
+			var postPower = Operators.postfixPower(op);
+			if(postPower != null && postPower.lbp() >= minBp){
 				advance();
 
-				if(op.type == TokenType.SQUARE_OPEN){
-					var index = parsePratt(0);
-					advanceExpected(TokenType.SQUARE_CLOSE);
-					left = new IndexExpr(left, index);
+				if(op == TokenType.SQUARE_OPEN){
+					stack.add(new Pending(PendingKind.INDEX, minBp, op, left, null));
+					minBp = 0;
+					expectOperand = true;
 				}
-				else if(op.type == TokenType.PAREN_OPEN){
-					var args = parseExpressionList(TokenType.PAREN_CLOSE);
-					left = new CallExpr(left, args);
+				else if(op == TokenType.PAREN_OPEN){
+					if(advanceMatching(TokenType.PAREN_CLOSE)){
+						left = new CallExpr(left, new Expression[0]);
+					}
+					else {
+						stack.add(new Pending(PendingKind.CALL, minBp, op, left, new ArrayList<Expression>()));
+						minBp = 0;
+						expectOperand = true;
+					}
 				}
 				else {
-					left = new UnaryExpr(op.type, left);
+					left = new UnaryExpr(op, left);
 				}
 				continue;
 			}
 
-			var inPower = Operators.infixPower(op.type);
-			if(inPower != null){
-				if(inPower.lbp() < minBp){
-					break;
-				}
+			var inPower = Operators.infixPower(op);
+			if(inPower != null && inPower.lbp() >= minBp){
 				advance();
-
-				var right = parsePratt(inPower.rbp());
-				left = new BinaryExpr(left, op.type, right);
+				stack.add(new Pending(PendingKind.BINARY, minBp, op, left, null));
+				minBp = inPower.rbp();
+				expectOperand = true;
 				continue;
 			}
 
-			break; // Nothing more to parse, OR not an operator.
+			// Nothing more binds to left, complete the innermost pending operator with it
+			if(stack.isEmpty()){
+				return left;
+			}
+			var top = stack.remove(stack.size() - 1);
+			minBp = top.minBp();
+
+			switch(top.kind()){
+				case PREFIX: left = new UnaryExpr(top.op(), left); break;
+				case BINARY: left = new BinaryExpr(top.left(), top.op(), left); break;
+				case GROUP: advanceExpected(TokenType.PAREN_CLOSE); break;
+				case INDEX: {
+					advanceExpected(TokenType.SQUARE_CLOSE);
+					left = new IndexExpr(top.left(), left);
+				} break;
+				case CALL: {
+					top.args().add(left);
+					if(advanceMatching(TokenType.PAREN_CLOSE)){
+						left = new CallExpr(top.left(), top.args().toArray(new Expression[top.args().size()]));
+						break;
+					}
+					if(peek(0) == TokenType.EOF){
+						throw LanguageException.parserError("Unclosed expression list");
+					}
+					advanceExpected(TokenType.COMMA);
+					stack.add(top);
+					minBp = 0;
+					expectOperand = true;
+				} break;
+			}
 		}
-
-		return left;
 	}
 
-	public Parser(Token[] tokens){
+	public Parser(TokenStream tokens){
 		this.tokens = tokens;
 	}
 
-	public static Statement parse(Token[] tokens) throws LanguageException {
+	public static Statement parse(TokenStream tokens) throws LanguageException {
 		var parser = new Parser(tokens);
 		var expr = parser.parseScope();
 		return expr;
 	}
+
+	// Parses the top level only, function bodies keep their token range and are parsed when first used.
+	// Syntax errors of the top level are still reported in source order.
+	public static Statement parseLazy(TokenStream tokens) throws LanguageException {
+		var parser = new Parser(tokens);
+		parser.skimmed = new ArrayList<FuncDef>();
+		try {
+			return parser.parseScope();
+		} catch (LanguageException e){
+			// Every skimmed body comes before the error, their errors win
+			for(var fn : parser.skimmed){
+				fn.body();
+			}
+			throw e;
+		}
+	}
+
+	// Same result as parse(), but the bodies of top level functions are skipped in a first pass and then
+	// parsed on the common pool. Errors are reported in source order like a sequential parse would.
+	public static Statement parseParallel(TokenStream tokens) throws LanguageException {
+		if(ForkJoinPool.getCommonPoolParallelism() < 2){
+			return parse(tokens);
+		}
+
+		var parser = new Parser(tokens);
+		parser.skimmed = new ArrayList<FuncDef>();
+		Scope global = null;
+		LanguageException error = null;
+		try {
+			global = parser.parseScope();
+		} catch (LanguageException e){
+			error = e;
+		}
+
+		var bodies = new ArrayList<ForkJoinTask<LanguageException>>();
+		for(var fn : parser.skimmed){
+			bodies.add(ForkJoinPool.commonPool().submit(() -> {
+				try {
+					fn.body();
+					return null;
+				} catch (LanguageException e){
+					return e;
+				}
+			}));
+		}
+
+		for(var body : bodies){
+			var bodyError = body.join();
+			if(bodyError != null){
+				throw bodyError;
+			}
+		}
+
+		if(error != null){
+			throw error;
+		}
+		return global;
+	}
 }
@@ -0,0 +1,345 @@
+package c3po;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+// Peephole rewrites of the flat IR, run on what SsaForm returns right before the assembly is emitted.
+// AssemblyBuilder translates one op at a time, so the rules either drop ops or fuse the address push of a
+// global into the LOAD or STORE that uses it. Every rule can be turned off, the enabled ones are applied
+// until none of them changes the program.
+public final class Peephole {
+	public enum Rule {
+		FUSE_SYMBOLS, // push_symbol s; load -> load_symbol s, and push_symbol s; ...; store -> ...; store_symbol s
+		FORWARD_STORES, // store_symbol s; load_symbol s -> dup; store_symbol s
+		DEAD_PUSHES, // A push directly popped
+		UNREACHABLE, // Code between a jump and the next label
+		THREAD_JUMPS, // A jump to a jump goes to the last target
+		INVERT_BRANCHES, // branch L1; jump L2; L1: -> inverted branch L2; L1:
+		JUMPS_TO_NEXT, // A jump to the label right after it
+		UNUSED_LABELS; // Labels nothing jumps to
+
+		// Comma separated rule names, "all" or "none"
+		public static EnumSet<Rule> parse(String list){
+			if(list.equals("all")){
+				return EnumSet.allOf(Rule.class);
+			}
+			var rules = EnumSet.noneOf(Rule.class);
+			if(list.equals("none")){
+				return rules;
+			}
+			for(var name : list.split(",")){
+				rules.add(Rule.valueOf(name.trim().toUpperCase()));
+			}
+			return rules;
+		}
+	}
+
+	private final EnumSet<Rule> rules;
+	private int removed;
+
+	// Working copy of the program, compacted after every pass
+	private int[] ops;
+	private int[] args;
+	private int length;
+	private boolean[] deleted;
+	private int[] labelPos;
+	private int[] labelRefs;
+
+	public Peephole(EnumSet<Rule> rules){
+		this.rules = rules;
+	}
+
+	// Instructions removed by the last run
+	public int removed(){
+		return removed;
+	}
+
+	public Program run(Program program){
+		length = program.length;
+		ops = new int[length];
+		args = new int[length];
+		for(int i = 0; i < length; i++){
+			ops[i] = program.code[2 * i];
+			args[i] = program.code[2 * i + 1];
+		}
+		deleted = new boolean[length];
+		labelPos = new int[program.labelPrefixes.length];
+		labelRefs = new int[program.labelPrefixes.length];
+
+		if(rules.contains(Rule.FUSE_SYMBOLS)){
+			fuseSymbols();
+			compact();
+		}
+		var changed = true;
+		while(changed){
+			changed = false;
+			if(rules.contains(Rule.FORWARD_STORES)) forwardStores();
+			if(rules.contains(Rule.DEAD_PUSHES)) changed |= deadPushes();
+			if(rules.contains(Rule.UNREACHABLE)) changed |= unreachable();
+			findLabels();
+			if(rules.contains(Rule.THREAD_JUMPS)) changed |= threadJumps();
+			if(rules.contains(Rule.INVERT_BRANCHES)) changed |= invertBranches();
+			if(rules.contains(Rule.JUMPS_TO_NEXT)) changed |= jumpsToNext();
+			changed |= compact();
+			if(rules.contains(Rule.UNUSED_LABELS)){
+				findLabels();
+				changed |= unusedLabels();
+				changed |= compact();
+			}
+		}
+
+		removed = program.length - length;
+		var code = new int[2 * length];
+		for(int i = 0; i < length; i++){
+			code[2 * i] = ops[i];
+			code[2 * i + 1] = args[i];
+		}
+		return new Program(code, length, program.labelPrefixes, program.labelNumbers, program.symbols, program.strings, program.staticSection);
+	}
+
+	private static OpCode op(int ordinal){
+		return OpCode.ordinals[ordinal];
+	}
+
+	private static boolean isJump(OpCode op){
+		return op == OpCode.JUMP || op == OpCode.BRANCH_EQUAL_ZERO || op == OpCode.BRANCH_NOT_ZERO;
+	}
+
+	private static boolean isUnary(OpCode op){
+		switch(op){
+			case LOAD, NEG, BIT_NOT, LOGIC_NOT, NOT_ZERO: return true;
+			default: return false;
+		}
+	}
+
+	private static boolean isBinary(OpCode op){
+		switch(op){
+			case ADD, SUB, MUL, DIV, MOD, BIT_AND, BIT_OR, BIT_XOR, BIT_SH_LEFT, BIT_SH_RIGHT,
+				GT, LT, GT_EQ, LT_EQ, EQUALS, NOT_EQUALS: return true;
+			default: return false;
+		}
+	}
+
+	// Tracks which instruction pushed each stack slot, the address of a STORE can be pushed long before it.
+	// Slots from before a label, or below an op whose stack effect is not known, are never fused.
+	private void fuseSymbols(){
+		var pushers = new int[length + 1];
+		int top = 0;
+		for(int i = 0; i < length; i++){
+			var op = op(ops[i]);
+			switch(op){
+				case PUSH, PUSH_SYMBOL, PUSH_STRING, LOAD_SYMBOL, INPUT_INT:
+					pushers[top++] = i;
+				break;
+				case LOAD: {
+					int addr = top > 0 ? pushers[--top] : -1;
+					if(addr >= 0 && ops[addr] == OpCode.PUSH_SYMBOL.ordinal()){
+						deleted[addr] = true;
+						ops[i] = OpCode.LOAD_SYMBOL.ordinal();
+						args[i] = args[addr];
+					}
+					pushers[top++] = i;
+				} break;
+				case STORE: {
+					top = Math.max(top - 1, 0);
+					int addr = top > 0 ? pushers[--top] : -1;
+					if(addr >= 0 && ops[addr] == OpCode.PUSH_SYMBOL.ordinal()){
+						deleted[addr] = true;
+						ops[i] = OpCode.STORE_SYMBOL.ordinal();
+						args[i] = args[addr];
+					}
+				} break;
+				case STORE_SYMBOL, POP, PRINT_INT, PRINT_STR:
+					top = Math.max(top - 1, 0);
+				break;
+				case DUP:
+					// Both copies come from the DUP, the pushed value is used twice
+					if(top > 0){
+						pushers[top - 1] = i;
+						pushers[top++] = i;
+					}
+				break;
+				case BRANCH_EQUAL_ZERO, BRANCH_NOT_ZERO, JUMP, LABEL:
+					top = 0;
+				break;
+				default:
+					if(isUnary(op)){
+						if(top > 0){
+							pushers[top - 1] = i;
+						}
+					}
+					else if(isBinary(op)){
+						top = Math.max(top - 2, 0);
+						pushers[top++] = i;
+					}
+					else {
+						top = 0;
+					}
+				break;
+			}
+		}
+	}
+
+	// The stored value is still on the stack, reloading it from memory is the spill the stack code makes
+	private void forwardStores(){
+		for(int i = 0; i + 1 < length; i++){
+			if(ops[i] == OpCode.STORE_SYMBOL.ordinal() && ops[i + 1] == OpCode.LOAD_SYMBOL.ordinal() && args[i] == args[i + 1]){
+				ops[i] = OpCode.DUP.ordinal();
+				ops[i + 1] = OpCode.STORE_SYMBOL.ordinal();
+			}
+		}
+	}
+
+	private boolean deadPushes(){
+		var changed = false;
+		for(int i = 0; i + 1 < length; i++){
+			switch(op(ops[i])){
+				case PUSH, PUSH_SYMBOL, PUSH_STRING, LOAD_SYMBOL, DUP:
+					if(ops[i + 1] == OpCode.POP.ordinal()){
+						deleted[i] = deleted[i + 1] = true;
+						changed = true;
+						i += 1;
+					}
+				break;
+				default: break;
+			}
+		}
+		return changed;
+	}
+
+	private boolean unreachable(){
+		var changed = false;
+		for(int i = 0; i < length; i++){
+			if(ops[i] != OpCode.JUMP.ordinal()){
+				continue;
+			}
+			while(i + 1 < length && ops[i + 1] != OpCode.LABEL.ordinal()){
+				deleted[++i] = true;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private void findLabels(){
+		Arrays.fill(labelPos, -1);
+		Arrays.fill(labelRefs, 0);
+		for(int i = 0; i < length; i++){
+			if(ops[i] == OpCode.LABEL.ordinal()){
+				labelPos[args[i]] = i;
+			}
+			else if(isJump(op(ops[i]))){
+				labelRefs[args[i]] += 1;
+			}
+		}
+	}
+
+	// First instruction at or after i that is not a label
+	private int skipLabels(int i){
+		while(i < length && ops[i] == OpCode.LABEL.ordinal()){
+			i += 1;
+		}
+		return i;
+	}
+
+	// Whether label is one of the labels starting at i
+	private boolean labelsAt(int i, int label){
+		for(; i < length && ops[i] == OpCode.LABEL.ordinal(); i++){
+			if(args[i] == label){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean threadJumps(){
+		var changed = false;
+		for(int i = 0; i < length; i++){
+			if(!isJump(op(ops[i]))){
+				continue;
+			}
+			// Bounded, a cycle of jumps never ends anyway
+			int target = args[i];
+			for(int hops = 0; hops < length && labelPos[target] >= 0; hops++){
+				int next = skipLabels(labelPos[target]);
+				if(next >= length || ops[next] != OpCode.JUMP.ordinal() || args[next] == target){
+					break;
+				}
+				target = args[next];
+			}
+			if(target != args[i]){
+				labelRefs[args[i]] -= 1;
+				labelRefs[target] += 1;
+				args[i] = target;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private boolean invertBranches(){
+		var changed = false;
+		for(int i = 0; i + 1 < length; i++){
+			var op = op(ops[i]);
+			if(deleted[i] || (op != OpCode.BRANCH_EQUAL_ZERO && op != OpCode.BRANCH_NOT_ZERO)){
+				continue;
+			}
+			if(ops[i + 1] == OpCode.JUMP.ordinal() && !deleted[i + 1] && labelsAt(i + 2, args[i])){
+				labelRefs[args[i]] -= 1;
+				ops[i] = (op == OpCode.BRANCH_EQUAL_ZERO ? OpCode.BRANCH_NOT_ZERO : OpCode.BRANCH_EQUAL_ZERO).ordinal();
+				args[i] = args[i + 1];
+				deleted[i + 1] = true;
+				changed = true;
+				i += 1;
+			}
+		}
+		return changed;
+	}
+
+	private boolean jumpsToNext(){
+		var changed = false;
+		for(int i = 0; i < length; i++){
+			var op = op(ops[i]);
+			if(deleted[i] || !isJump(op) || !labelsAt(i + 1, args[i])){
+				continue;
+			}
+			labelRefs[args[i]] -= 1;
+			if(op == OpCode.JUMP){
+				deleted[i] = true;
+			}
+			else {
+				// Either way it falls through, only the condition has to leave the stack
+				ops[i] = OpCode.POP.ordinal();
+				args[i] = 0;
+			}
+			changed = true;
+		}
+		return changed;
+	}
+
+	private boolean unusedLabels(){
+		var changed = false;
+		for(int i = 0; i < length; i++){
+			if(ops[i] == OpCode.LABEL.ordinal() && labelRefs[args[i]] == 0){
+				deleted[i] = true;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private boolean compact(){
+		int n = 0;
+		for(int i = 0; i < length; i++){
+			if(!deleted[i]){
+				ops[n] = ops[i];
+				args[n] = args[i];
+				n += 1;
+			}
+		}
+		var changed = n != length;
+		Arrays.fill(deleted, 0, length, false);
+		length = n;
+		return changed;
+	}
+}
@@ -1,29 +1,89 @@
 package c3po;
 
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
 public final class Scope implements Statement{
 	public Statement[] statements;
 	public Scope parent;
-	public Environment env;
+	public Environment env; // Allocated with the first symbol
+	int parentVisible = -1; // How many symbols of the parent are visible, -1 for all of them
 
 	public void initAsGlobalScope(){
 		if(this.env == null){
 			this.env = new Environment();
 		}
 		for(var primType : PrimitiveType.values()){
-			env.addSymbol(primType.value, SymbolInfo.type(new Type(primType, null)));
+			env.addSymbol(Names.intern(primType.value), SymbolInfo.type(Type.of(primType)));
 		}
 	}
 
 	public void check(Scope previous) throws LanguageException{
-		if(this.env == null){
-			this.env = new Environment();
+		this.parent = previous;
+
+		for(var statement : this.statements){
+			statement.check(this);
+		}
+	}
+
+	// Like check(), but the bodies of the functions declared directly in this scope are checked on the
+	// common pool once every top level statement is. A body still only sees the symbols defined before
+	// its function, and the error reported is the first one in source order.
+	public void checkParallel(Scope previous) throws LanguageException{
+		if(ForkJoinPool.getCommonPoolParallelism() < 2){
+			check(previous);
+			return;
 		}
 
 		this.parent = previous;
 
+		// Unimplemented features throw unchecked exceptions, they are kept in order like the checker errors
+		var functions = new ArrayList<FuncDef>();
+		Exception error = null;
 		for(var statement : this.statements){
-			statement.check(this);
+			try {
+				if(statement instanceof FuncDef fn){
+					fn.checkSignature(this);
+					functions.add(fn);
+				} else {
+					statement.check(this);
+				}
+			} catch (LanguageException | RuntimeException e){
+				error = e;
+				break;
+			}
+		}
+
+		// Bodies only define symbols in their own environments, this one is only read from now on
+		var bodies = new ArrayList<ForkJoinTask<Exception>>();
+		for(var fn : functions){
+			bodies.add(ForkJoinPool.commonPool().submit(() -> {
+				try {
+					fn.checkBody();
+					return null;
+				} catch (LanguageException | RuntimeException e){
+					return e;
+				}
+			}));
+		}
+		for(var body : bodies){
+			var bodyError = body.join();
+			if(bodyError != null){
+				rethrow(bodyError);
+			}
+		}
+
+		if(error != null){
+			rethrow(error);
+		}
+	}
+
+	static void rethrow(Exception e) throws LanguageException {
+		if(e instanceof LanguageException le){
+			throw le;
 		}
+		throw (RuntimeException)e;
 	}
 
 	Scope(Statement[] statements){
@@ -41,9 +101,13 @@ public final class Scope implements Statement{
 		return sb.toString();
 	}
 
-	SymbolInfo searchSymbol(String name){
-		if (this.env.hasSymbol(name)){
-			var info = this.env.getSymbol(name);
+	SymbolInfo searchSymbol(int name){
+		return searchSymbol(name, Integer.MAX_VALUE);
+	}
+
+	SymbolInfo searchSymbol(int name, int visible){
+		var info = this.env == null ? null : this.env.getSymbol(name);
+		if (info != null && info.order < visible){
 			// info.used = info.used || increaseUsage;
 			return info;
 		}
@@ -51,20 +115,39 @@ public final class Scope implements Statement{
 		if(this.parent == null){
 			return null;
 		}
-		return this.parent.searchSymbol(name);
+		return this.parent.searchSymbol(name, parentVisible < 0 ? Integer.MAX_VALUE : parentVisible);
 	}
 
-	void defineSymbol(String name, SymbolInfo info) throws LanguageException{
+	void defineSymbol(int name, SymbolInfo info) throws LanguageException{
 		if(searchSymbol(name) != null){
-			throw LanguageException.checkerError(String.format("Symbol %s is already defined", name));
+			throw LanguageException.checkerError("Symbol %s is already defined", Names.name(name));
+		}
+		addSymbol(name, info);
+	}
+
+	void addSymbol(int name, SymbolInfo info){
+		if(this.env == null){
+			this.env = new Environment();
 		}
 		this.env.addSymbol(name, info);
 	}
 
+	int symbolCount(){
+		return this.env == null ? 0 : this.env.size();
+	}
+
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException {
 		for(var stmt : statements){
 			stmt.genIR(this, builder);
 		}
 	}
 
+	public void checkAndGenIR(Scope previous, IRBuilder builder) throws LanguageException {
+		this.parent = previous;
+
+		for(var stmt : statements){
+			stmt.checkAndGenIR(this, builder);
+		}
+	}
+
 }
\ No newline at end of file
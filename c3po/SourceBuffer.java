@@ -0,0 +1,79 @@
+package c3po;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Read only view over the UTF-8 bytes of a source file, every byte is exposed as one char.
+// All tokens except string/char literals and comments are ASCII, so the lexer can walk the
+// bytes directly and text only gets decoded when a lexeme is extracted with toString().
+// The prefix and suffix are virtual, they are never copied next to the file contents.
+public class SourceBuffer implements CharSequence {
+	final String prefix;
+	final ByteBuffer bytes;
+	final String suffix;
+	final int size;
+
+	public static SourceBuffer map(Path path, String prefix, String suffix) throws IOException {
+		try(var channel = FileChannel.open(path, StandardOpenOption.READ)){
+			var fileSize = channel.size();
+			if(fileSize > Integer.MAX_VALUE - prefix.length() - suffix.length()){
+				throw new IOException("File is too large: " + path);
+			}
+			var bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+			return new SourceBuffer(prefix, bytes, suffix);
+		}
+	}
+
+	public SourceBuffer(String prefix, ByteBuffer bytes, String suffix){
+		this.prefix = prefix;
+		this.bytes = bytes;
+		this.suffix = suffix;
+		this.size = bytes.remaining();
+	}
+
+	public int length(){
+		return prefix.length() + size + suffix.length();
+	}
+
+	public char charAt(int index){
+		int pos = index - prefix.length();
+		if(pos < 0){
+			return prefix.charAt(index);
+		}
+		if(pos < size){
+			return (char)(bytes.get(bytes.position() + pos) & 0xff);
+		}
+		return suffix.charAt(pos - size);
+	}
+
+	// NOTE: Only absolute reads are used, so a buffer can be shared between threads
+	public CharSequence subSequence(int start, int end){
+		if(start < 0 || end > length() || start > end){
+			throw new IndexOutOfBoundsException(String.format("[%d, %d) out of [0, %d)", start, end, length()));
+		}
+		int p = prefix.length();
+		var pre = prefix.substring(clamp(start, 0, p), clamp(end, 0, p));
+
+		int bodyStart = clamp(start - p, 0, size);
+		int bodyEnd = clamp(end - p, 0, size);
+		var body = bytes.slice(bytes.position() + bodyStart, bodyEnd - bodyStart);
+
+		var post = suffix.substring(clamp(start - p - size, 0, suffix.length()), clamp(end - p - size, 0, suffix.length()));
+
+		return new SourceBuffer(pre, body, post);
+	}
+
+	static int clamp(int v, int lo, int hi){
+		return Math.max(lo, Math.min(v, hi));
+	}
+
+	public String toString(){
+		var data = new byte[size];
+		bytes.get(bytes.position(), data);
+		return prefix + new String(data, StandardCharsets.UTF_8) + suffix;
+	}
+}
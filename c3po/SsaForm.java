@@ -0,0 +1,739 @@
+package c3po;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+// SSA view of the stack IR. Every value pushed on the operand stack becomes a node numbered once, like a
+// virtual register, and scalar variables whose address only ever feeds a LOAD or a STORE are renamed into
+// definitions and phis. Sparse conditional constant propagation and dead code elimination then run over
+// the def-use chains of the nodes.
+// AssemblyBuilder has no register allocator, so the result is lowered back by rewriting the stack code:
+// constant expressions become a single push, constant branches become jumps or disappear, unreachable
+// blocks and stores nobody reads are dropped. Variables that are still read keep their static slot.
+public final class SsaForm {
+	private static final int PHI = -1;
+	private static final int DEF = -2; // Store to a promoted variable, a copy of the stored value
+
+	// Lattice of the propagation, a node only ever moves down
+	private static final int TOP = 0;
+	private static final int CONST = 1;
+	private static final int BOTTOM = 2;
+
+	// What lowering does with the instructions starting at an index
+	private static final int KEEP = 0;
+	private static final int DELETE = 1;
+	private static final int PUSH_CONST = 2;
+	private static final int JUMP = 3;
+	private static final int INPUT_POP = 4;
+
+	final Program program;
+	final ControlFlowGraph cfg;
+
+	// Nodes
+	private int nodeCount;
+	private int[] kinds = new int[256]; // OpCode ordinal, PHI or DEF
+	private int[] args0 = new int[256];
+	private int[] args1 = new int[256];
+	private int[] operands = new int[256]; // Immediate, label, symbol or variable
+	private int[] blockOf = new int[256];
+	private int[][] phiArgs = new int[256][]; // One per predecessor of the block, -1 for unreachable ones
+	private int[] states = new int[256];
+	private int[] values = new int[256];
+	private int[][] users;
+	private boolean[] live;
+
+	// Per instruction
+	private final int[] valueAt; // Node of the value the instruction pushes, -1 if none
+	private final int[] effectAt; // Node of a store, print or branch, -1 if none
+	private final int[] spanStart; // First instruction of the value's expression or of the statement
+	private final BitSet dropped = new BitSet(); // Values still on the stack at the end of their block
+
+	// Per block
+	private final int[] phiFirst;
+	private final int[] phiEnd;
+	private final int[] nodeFirst;
+	private final int[] nodeEnd;
+	private int[][] exitDefs; // Definition of each variable at the end of the block
+	private boolean[] reached;
+	private boolean[][] executable; // Per predecessor edge
+
+	// Promoted variables
+	private final int[] varOf; // Symbol index to variable, -1 when it stays in memory
+	private int varCount;
+	private BitSet[] defBlocks;
+	private BitSet[] phiBlocks;
+
+	// Work lists of the propagation, edges are pushed as pairs of block ids
+	private int[] edgeWork = new int[64];
+	private int edgeTop;
+	private int[] nodeWork = new int[64];
+	private int nodeTop;
+
+	private SsaForm(Program program){
+		this.program = program;
+		this.cfg = ControlFlowGraph.build(program);
+		valueAt = new int[program.length];
+		effectAt = new int[program.length];
+		spanStart = new int[program.length];
+		Arrays.fill(valueAt, -1);
+		Arrays.fill(effectAt, -1);
+		phiFirst = new int[cfg.blocks.length];
+		phiEnd = new int[cfg.blocks.length];
+		nodeFirst = new int[cfg.blocks.length];
+		nodeEnd = new int[cfg.blocks.length];
+		varOf = new int[program.symbols.length];
+	}
+
+	// Returns the optimized program, or the same one if it uses something the analysis does not model
+	public static Program optimize(Program program){
+		if(program.length == 0){
+			return program;
+		}
+		var ssa = new SsaForm(program);
+		if(!ssa.build()){
+			return program;
+		}
+		ssa.propagateConstants();
+		ssa.markLive();
+		return ssa.lower();
+	}
+
+	private static boolean isBinary(OpCode op){
+		switch(op){
+			case ADD, SUB, MUL, DIV, BIT_AND, BIT_OR, BIT_XOR, BIT_SH_LEFT, BIT_SH_RIGHT,
+				GT, LT, GT_EQ, LT_EQ, EQUALS, NOT_EQUALS: return true;
+			default: return false;
+		}
+	}
+
+	private static boolean isUnary(OpCode op){
+		switch(op){
+			case NEG, BIT_NOT, LOGIC_NOT, NOT_ZERO: return true;
+			default: return false;
+		}
+	}
+
+	private static boolean isModeled(OpCode op){
+		switch(op){
+			case PUSH, PUSH_SYMBOL, PUSH_STRING, LOAD, STORE, PRINT_INT, PRINT_STR, INPUT_INT,
+				LABEL, JUMP, BRANCH_EQUAL_ZERO, BRANCH_NOT_ZERO: return true;
+			default: return isUnary(op) || isBinary(op);
+		}
+	}
+
+	private static boolean isBranch(OpCode op){
+		return op == OpCode.BRANCH_EQUAL_ZERO || op == OpCode.BRANCH_NOT_ZERO;
+	}
+
+	private static int pops(OpCode op){
+		switch(op){
+			case LOAD, PRINT_INT, PRINT_STR, BRANCH_EQUAL_ZERO, BRANCH_NOT_ZERO: return 1;
+			case STORE: return 2;
+			default: return isBinary(op) ? 2 : (isUnary(op) ? 1 : 0);
+		}
+	}
+
+	private static boolean pushes(OpCode op){
+		switch(op){
+			case PUSH, PUSH_SYMBOL, PUSH_STRING, LOAD, INPUT_INT: return true;
+			default: return isUnary(op) || isBinary(op);
+		}
+	}
+
+	private boolean build(){
+		for(int i = 0; i < program.length; i++){
+			var op = program.op(i);
+			if(!isModeled(op)){
+				return false;
+			}
+			if((op == OpCode.JUMP || isBranch(op)) && cfg.blockOfLabel(program.operand(i)) == null){
+				return false;
+			}
+		}
+		if(!findVariables()){
+			return false;
+		}
+		placePhis();
+		rename();
+		linkPhis();
+		linkUsers();
+		return true;
+	}
+
+	// A scalar is promoted when its address is only loaded from or stored to. Also checks that no block
+	// pops a value pushed by another one, which the frontend never emits.
+	private boolean findVariables(){
+		var escaped = new boolean[program.symbols.length];
+		var stores = new BitSet[program.symbols.length];
+		var stack = new int[program.length + 1]; // Symbol whose address was pushed, -1 for other values
+		for(var block : cfg.reversePostorder){
+			int top = 0;
+			for(int i = block.start; i < block.end; i++){
+				var op = program.op(i);
+				int count = pops(op);
+				if(top < count){
+					return false;
+				}
+				for(int k = top - count; k < top; k++){
+					int sym = stack[k];
+					if(sym < 0){
+						continue;
+					}
+					var isAddress = (op == OpCode.LOAD) || (op == OpCode.STORE && k == top - 2);
+					if(!isAddress){
+						escaped[sym] = true;
+					}
+					else if(op == OpCode.STORE){
+						if(stores[sym] == null){
+							stores[sym] = new BitSet();
+						}
+						stores[sym].set(block.id);
+					}
+				}
+				top -= count;
+				if(pushes(op)){
+					stack[top++] = op == OpCode.PUSH_SYMBOL ? program.operand(i) : -1;
+				}
+			}
+			for(int k = 0; k < top; k++){
+				if(stack[k] >= 0){
+					escaped[stack[k]] = true;
+				}
+			}
+		}
+
+		Arrays.fill(varOf, -1);
+		for(int sym = 0; sym < program.symbols.length; sym++){
+			var info = program.symbols[sym];
+			var isScalar = (info.kind == SymbolKind.VAR || info.kind == SymbolKind.PARAMETER || info.kind == SymbolKind.TEMP) && info.type.quals.length == 0;
+			if(isScalar && !escaped[sym]){
+				varOf[sym] = varCount;
+				varCount += 1;
+			}
+		}
+		defBlocks = new BitSet[varCount];
+		for(int sym = 0; sym < program.symbols.length; sym++){
+			if(varOf[sym] >= 0){
+				defBlocks[varOf[sym]] = stores[sym] == null ? new BitSet() : stores[sym];
+			}
+		}
+		return true;
+	}
+
+	// Minimal SSA, phis go on the iterated dominance frontier of the blocks storing the variable
+	private void placePhis(){
+		var frontiers = new BitSet[cfg.blocks.length];
+		for(var block : cfg.blocks){
+			frontiers[block.id] = new BitSet();
+		}
+		for(var block : cfg.reversePostorder){
+			if(block.preds.size() < 2){
+				continue;
+			}
+			for(var pred : block.preds){
+				var runner = pred;
+				while(runner != null && runner.order >= 0 && runner != block.idom){
+					frontiers[runner.id].set(block.id);
+					runner = runner.idom;
+				}
+			}
+		}
+
+		phiBlocks = new BitSet[varCount];
+		for(int v = 0; v < varCount; v++){
+			var placed = new BitSet();
+			var added = (BitSet)defBlocks[v].clone();
+			var work = (BitSet)defBlocks[v].clone();
+			for(int x = work.nextSetBit(0); x >= 0; x = work.nextSetBit(0)){
+				work.clear(x);
+				var frontier = frontiers[x];
+				for(int y = frontier.nextSetBit(0); y >= 0; y = frontier.nextSetBit(y + 1)){
+					if(placed.get(y)){
+						continue;
+					}
+					placed.set(y);
+					if(!added.get(y)){
+						added.set(y);
+						work.set(y);
+					}
+				}
+			}
+			phiBlocks[v] = placed;
+		}
+	}
+
+	// Builds the nodes block by block in reverse postorder. Without a phi, the definition reaching a block
+	// is the one leaving its immediate dominator, which is always built first.
+	private void rename(){
+		exitDefs = new int[cfg.blocks.length][];
+		var entryDefs = new int[varCount];
+		for(int v = 0; v < varCount; v++){
+			entryDefs[v] = addNode(OpCode.PUSH.ordinal(), -1, -1, 0, cfg.entry().id); // Static storage starts zeroed
+		}
+
+		var stackNodes = new int[program.length + 1];
+		var stackStarts = new int[program.length + 1];
+		var stackRoots = new int[program.length + 1];
+		var stackVars = new int[program.length + 1]; // Variable whose address was pushed, -1 for values
+		for(var block : cfg.reversePostorder){
+			var defs = block.idom == null ? entryDefs.clone() : exitDefs[block.idom.id].clone();
+			phiFirst[block.id] = nodeCount;
+			for(int v = 0; v < varCount; v++){
+				if(phiBlocks[v].get(block.id)){
+					defs[v] = addNode(PHI, -1, -1, v, block.id);
+				}
+			}
+			phiEnd[block.id] = nodeCount;
+			nodeFirst[block.id] = nodeCount;
+
+			int top = 0;
+			for(int i = block.start; i < block.end; i++){
+				var op = program.op(i);
+				int operand = program.operand(i);
+				switch(op){
+					case LABEL, JUMP: break;
+					case PUSH_SYMBOL:
+						stackVars[top] = varOf[operand];
+						stackNodes[top] = varOf[operand] >= 0 ? -1 : addNode(op.ordinal(), -1, -1, operand, block.id);
+						stackStarts[top] = i;
+						stackRoots[top] = i;
+						valueAt[i] = stackNodes[top];
+						spanStart[i] = i;
+						top += 1;
+					break;
+					case PUSH, PUSH_STRING, INPUT_INT:
+						stackVars[top] = -1;
+						stackNodes[top] = addNode(op.ordinal(), -1, -1, operand, block.id);
+						stackStarts[top] = i;
+						stackRoots[top] = i;
+						valueAt[i] = stackNodes[top];
+						spanStart[i] = i;
+						top += 1;
+					break;
+					case LOAD: {
+						int address = top - 1;
+						int node = stackVars[address] >= 0 ? defs[stackVars[address]] : addNode(op.ordinal(), stackNodes[address], -1, 0, block.id);
+						stackVars[address] = -1;
+						stackNodes[address] = node;
+						stackRoots[address] = i;
+						valueAt[i] = node;
+						spanStart[i] = stackStarts[address];
+					} break;
+					case STORE: {
+						int address = top - 2;
+						int value = top - 1;
+						int v = stackVars[address];
+						if(v >= 0){
+							defs[v] = addNode(DEF, stackNodes[value], -1, v, block.id);
+							effectAt[i] = defs[v];
+						}
+						else {
+							effectAt[i] = addNode(op.ordinal(), stackNodes[address], stackNodes[value], 0, block.id);
+						}
+						spanStart[i] = stackStarts[address];
+						top -= 2;
+					} break;
+					case PRINT_INT, PRINT_STR, BRANCH_EQUAL_ZERO, BRANCH_NOT_ZERO:
+						top -= 1;
+						effectAt[i] = addNode(op.ordinal(), stackNodes[top], -1, operand, block.id);
+						spanStart[i] = stackStarts[top];
+					break;
+					case NEG, BIT_NOT, LOGIC_NOT, NOT_ZERO: {
+						int value = top - 1;
+						int node = addNode(op.ordinal(), stackNodes[value], -1, 0, block.id);
+						stackNodes[value] = node;
+						stackRoots[value] = i;
+						valueAt[i] = node;
+						spanStart[i] = stackStarts[value];
+					} break;
+					default: {
+						int left = top - 2;
+						int right = top - 1;
+						int node = addNode(op.ordinal(), stackNodes[left], stackNodes[right], 0, block.id);
+						stackNodes[left] = node;
+						stackRoots[left] = i;
+						valueAt[i] = node;
+						spanStart[i] = stackStarts[left];
+						top -= 1;
+					} break;
+				}
+			}
+			for(int k = 0; k < top; k++){
+				dropped.set(stackRoots[k]);
+			}
+
+			nodeEnd[block.id] = nodeCount;
+			exitDefs[block.id] = defs;
+		}
+	}
+
+	private void linkPhis(){
+		for(var block : cfg.reversePostorder){
+			for(int n = phiFirst[block.id]; n < phiEnd[block.id]; n++){
+				var args = new int[block.preds.size()];
+				for(int k = 0; k < args.length; k++){
+					var defs = exitDefs[block.preds.get(k).id];
+					args[k] = defs == null ? -1 : defs[operands[n]];
+				}
+				phiArgs[n] = args;
+			}
+		}
+	}
+
+	private void linkUsers(){
+		var counts = new int[nodeCount];
+		for(int n = 0; n < nodeCount; n++){
+			if(kinds[n] == PHI){
+				for(var arg : phiArgs[n]){
+					if(arg >= 0){
+						counts[arg] += 1;
+					}
+				}
+				continue;
+			}
+			if(args0[n] >= 0){
+				counts[args0[n]] += 1;
+			}
+			if(args1[n] >= 0){
+				counts[args1[n]] += 1;
+			}
+		}
+		users = new int[nodeCount][];
+		for(int n = 0; n < nodeCount; n++){
+			users[n] = new int[counts[n]];
+			counts[n] = 0;
+		}
+		for(int n = 0; n < nodeCount; n++){
+			if(kinds[n] == PHI){
+				for(var arg : phiArgs[n]){
+					if(arg >= 0){
+						users[arg][counts[arg]++] = n;
+					}
+				}
+				continue;
+			}
+			if(args0[n] >= 0){
+				users[args0[n]][counts[args0[n]]++] = n;
+			}
+			if(args1[n] >= 0){
+				users[args1[n]][counts[args1[n]]++] = n;
+			}
+		}
+	}
+
+	private int addNode(int kind, int arg0, int arg1, int operand, int block){
+		if(nodeCount == kinds.length){
+			int size = nodeCount * 2;
+			kinds = Arrays.copyOf(kinds, size);
+			args0 = Arrays.copyOf(args0, size);
+			args1 = Arrays.copyOf(args1, size);
+			operands = Arrays.copyOf(operands, size);
+			blockOf = Arrays.copyOf(blockOf, size);
+			phiArgs = Arrays.copyOf(phiArgs, size);
+			states = Arrays.copyOf(states, size);
+			values = Arrays.copyOf(values, size);
+		}
+		kinds[nodeCount] = kind;
+		args0[nodeCount] = arg0;
+		args1[nodeCount] = arg1;
+		operands[nodeCount] = operand;
+		blockOf[nodeCount] = block;
+		states[nodeCount] = kind == OpCode.PUSH.ordinal() ? CONST : TOP;
+		values[nodeCount] = operand;
+		nodeCount += 1;
+		return nodeCount - 1;
+	}
+
+	// Wegman and Zadeck's sparse conditional constant propagation. Only nodes in blocks reached through
+	// an executable edge are evaluated, so constants flowing around a loop are not lost to its back edge.
+	private void propagateConstants(){
+		reached = new boolean[cfg.blocks.length];
+		executable = new boolean[cfg.blocks.length][];
+		for(var block : cfg.blocks){
+			executable[block.id] = new boolean[block.preds.size()];
+		}
+
+		reached[cfg.entry().id] = true;
+		visitBlock(cfg.entry());
+		while(edgeTop > 0 || nodeTop > 0){
+			while(edgeTop > 0){
+				edgeTop -= 2;
+				markEdge(cfg.blocks[edgeWork[edgeTop]], cfg.blocks[edgeWork[edgeTop + 1]]);
+			}
+			while(nodeTop > 0){
+				nodeTop -= 1;
+				int n = nodeWork[nodeTop];
+				for(var user : users[n]){
+					if(reached[blockOf[user]]){
+						evaluate(user);
+					}
+				}
+			}
+		}
+	}
+
+	private void visitBlock(BasicBlock block){
+		for(int n = phiFirst[block.id]; n < phiEnd[block.id]; n++){
+			evaluate(n);
+		}
+		for(int n = nodeFirst[block.id]; n < nodeEnd[block.id]; n++){
+			evaluate(n);
+		}
+
+		// Branches add their own edges when evaluated
+		var op = block.start < block.end ? program.op(block.end - 1) : null;
+		if(op == OpCode.JUMP){
+			addEdge(block, cfg.blockOfLabel(program.operand(block.end - 1)));
+		}
+		else if(op == null || !isBranch(op)){
+			addEdge(block, next(block));
+		}
+	}
+
+	private BasicBlock next(BasicBlock block){
+		return block.id + 1 < cfg.blocks.length ? cfg.blocks[block.id + 1] : null;
+	}
+
+	private void addEdge(BasicBlock from, BasicBlock to){
+		if(to == null){
+			return;
+		}
+		if(edgeTop + 2 > edgeWork.length){
+			edgeWork = Arrays.copyOf(edgeWork, edgeWork.length * 2);
+		}
+		edgeWork[edgeTop++] = from.id;
+		edgeWork[edgeTop++] = to.id;
+	}
+
+	private void markEdge(BasicBlock from, BasicBlock to){
+		int k = to.preds.indexOf(from);
+		if(executable[to.id][k]){
+			return;
+		}
+		executable[to.id][k] = true;
+		if(!reached[to.id]){
+			reached[to.id] = true;
+			visitBlock(to);
+			return;
+		}
+		for(int n = phiFirst[to.id]; n < phiEnd[to.id]; n++){
+			evaluate(n);
+		}
+	}
+
+	private void evaluate(int n){
+		int kind = kinds[n];
+		if(kind == PHI){
+			var args = phiArgs[n];
+			var edges = executable[blockOf[n]];
+			int state = TOP;
+			int value = 0;
+			for(int k = 0; k < args.length; k++){
+				if(!edges[k] || states[args[k]] == TOP){
+					continue;
+				}
+				if(states[args[k]] == BOTTOM || (state == CONST && values[args[k]] != value)){
+					state = BOTTOM;
+					break;
+				}
+				state = CONST;
+				value = values[args[k]];
+			}
+			update(n, state, value);
+			return;
+		}
+		if(kind == DEF){
+			update(n, states[args0[n]], values[args0[n]]);
+			return;
+		}
+
+		var op = OpCode.ordinals[kind];
+		switch(op){
+			case PUSH: break;
+			case PUSH_SYMBOL, PUSH_STRING, LOAD, INPUT_INT:
+				update(n, BOTTOM, 0);
+			break;
+			case STORE, PRINT_INT, PRINT_STR: break;
+			case BRANCH_EQUAL_ZERO, BRANCH_NOT_ZERO: {
+				int cond = args0[n];
+				var block = cfg.blocks[blockOf[n]];
+				var target = cfg.blockOfLabel(operands[n]);
+				if(states[cond] == BOTTOM){
+					addEdge(block, target);
+					addEdge(block, next(block));
+				}
+				else if(states[cond] == CONST){
+					var taken = (values[cond] == 0) == (op == OpCode.BRANCH_EQUAL_ZERO);
+					addEdge(block, taken ? target : next(block));
+				}
+			} break;
+			case NEG, BIT_NOT, LOGIC_NOT, NOT_ZERO: {
+				int a = args0[n];
+				if(states[a] != TOP){
+					update(n, states[a], ConstantFolder.evaluate(op, values[a], 0));
+				}
+			} break;
+			default: {
+				int a = args0[n];
+				int b = args1[n];
+				if(states[a] == BOTTOM || states[b] == BOTTOM){
+					update(n, BOTTOM, 0);
+				}
+				else if(states[a] == CONST && states[b] == CONST){
+					update(n, CONST, ConstantFolder.evaluate(op, values[a], values[b]));
+				}
+			} break;
+		}
+	}
+
+	private void update(int n, int state, int value){
+		if(state <= states[n]){
+			return;
+		}
+		states[n] = state;
+		values[n] = value;
+		if(nodeTop == nodeWork.length){
+			nodeWork = Arrays.copyOf(nodeWork, nodeWork.length * 2);
+		}
+		nodeWork[nodeTop++] = n;
+	}
+
+	// A node is live when lowering still emits it. Constants are pushed again where they are used, so
+	// they keep nothing alive, except through a phi: the variable is then read back from its slot and
+	// every store reaching the phi has to stay.
+	private void markLive(){
+		live = new boolean[nodeCount];
+		var work = new int[nodeCount];
+		int top = 0;
+		for(var block : cfg.reversePostorder){
+			if(!reached[block.id]){
+				continue;
+			}
+			for(int n = nodeFirst[block.id]; n < nodeEnd[block.id]; n++){
+				if(kinds[n] < 0){
+					continue;
+				}
+				var op = OpCode.ordinals[kinds[n]];
+				var isRoot = op == OpCode.STORE || op == OpCode.PRINT_INT || op == OpCode.PRINT_STR || op == OpCode.INPUT_INT
+					|| (isBranch(op) && states[args0[n]] != CONST);
+				if(isRoot){
+					live[n] = true;
+					work[top++] = n;
+				}
+			}
+		}
+
+		while(top > 0){
+			int n = work[--top];
+			if(kinds[n] == PHI){
+				var edges = executable[blockOf[n]];
+				for(int k = 0; k < phiArgs[n].length; k++){
+					int arg = phiArgs[n][k];
+					if(edges[k] && !live[arg]){
+						live[arg] = true;
+						work[top++] = arg;
+					}
+				}
+				continue;
+			}
+			int a = args0[n];
+			if(a >= 0 && !live[a] && states[a] != CONST){
+				live[a] = true;
+				work[top++] = a;
+			}
+			int b = args1[n];
+			if(b >= 0 && !live[b] && states[b] != CONST){
+				live[b] = true;
+				work[top++] = b;
+			}
+		}
+	}
+
+	private Program lower(){
+		var actions = new int[program.length];
+		var actionEnds = new int[program.length];
+		var actionOperands = new int[program.length];
+
+		// Outermost constant expression first, a statement rewrite then overrides what it covers
+		for(var block : cfg.blocks){
+			if(!reached[block.id]){
+				continue;
+			}
+			for(int i = block.start; i < block.end; i++){
+				int v = valueAt[i];
+				if(v < 0 || states[v] != CONST || program.op(i) == OpCode.PUSH){
+					continue;
+				}
+				int start = spanStart[i];
+				if(actions[start] == KEEP || actionEnds[start] < i){
+					actions[start] = PUSH_CONST;
+					actionEnds[start] = i;
+					actionOperands[start] = values[v];
+				}
+			}
+			for(int i = block.start; i < block.end; i++){
+				int start = spanStart[i];
+				int e = effectAt[i];
+				if(e >= 0 && kinds[e] == DEF && !live[e]){
+					// Input still has to be consumed, only its value is thrown away
+					var isInput = kinds[args0[e]] == OpCode.INPUT_INT.ordinal();
+					actions[start] = isInput ? INPUT_POP : DELETE;
+					actionEnds[start] = i;
+				}
+				else if(e >= 0 && kinds[e] >= 0 && isBranch(OpCode.ordinals[kinds[e]]) && states[args0[e]] == CONST){
+					var taken = (values[args0[e]] == 0) == (program.op(i) == OpCode.BRANCH_EQUAL_ZERO);
+					actions[start] = taken ? JUMP : DELETE;
+					actionEnds[start] = i;
+					actionOperands[start] = program.operand(i);
+				}
+				else if(dropped.get(i) && kinds[valueAt[i]] != OpCode.INPUT_INT.ordinal()){
+					actions[start] = DELETE;
+					actionEnds[start] = i;
+				}
+			}
+		}
+
+		var code = new int[2 * program.length];
+		int length = 0;
+		var referenced = new HashSet<SymbolInfo>();
+		for(var block : cfg.blocks){
+			if(!reached[block.id]){
+				continue;
+			}
+			for(int i = block.start; i < block.end; i++){
+				int op = program.code[2 * i];
+				int operand = program.operand(i);
+				switch(actions[i]){
+					case KEEP: break;
+					case DELETE: i = actionEnds[i]; continue;
+					case PUSH_CONST: op = OpCode.PUSH.ordinal(); operand = actionOperands[i]; i = actionEnds[i]; break;
+					case JUMP: op = OpCode.JUMP.ordinal(); operand = actionOperands[i]; i = actionEnds[i]; break;
+					case INPUT_POP:
+						code[2 * length] = OpCode.INPUT_INT.ordinal();
+						length += 1;
+						op = OpCode.POP.ordinal();
+						operand = 0;
+						i = actionEnds[i];
+					break;
+				}
+				if(op == OpCode.PUSH_SYMBOL.ordinal()){
+					referenced.add(program.symbols[operand]);
+				}
+				code[2 * length] = op;
+				code[2 * length + 1] = operand;
+				length += 1;
+			}
+		}
+
+		// Storage of variables that are never addressed anymore is dropped too
+		var staticSection = new LinkedHashMap<SymbolInfo, StaticSectionInfo>();
+		for(var entry : program.staticSection.entrySet()){
+			if(referenced.contains(entry.getKey())){
+				staticSection.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return new Program(code, length, program.labelPrefixes, program.labelNumbers, program.symbols, program.strings, staticSection);
+	}
+}
@@ -2,39 +2,96 @@ package c3po;
 
 public interface Statement extends IREmmiter {
 	public void check(Scope previous) throws LanguageException;
+
+	// Checks and emits the statement in a single walk, for callers that only want the IR. Statements with
+	// nested blocks override it so the blocks are fused as well.
+	default void checkAndGenIR(Scope previous, IRBuilder builder) throws LanguageException {
+		check(previous);
+		genIR(previous, builder);
+	}
+
+	// Emits a nested statement, checking it on the way when the enclosing statement is fused
+	static void genIR(Statement statement, Scope context, IRBuilder builder, boolean check) throws LanguageException {
+		if(check){
+			statement.checkAndGenIR(context, builder);
+		} else {
+			statement.genIR(context, builder);
+		}
+	}
 }
 
 final class FuncDef implements Statement {
-	String name;
+	int name;
 	ParameterList parameters;
 	ParserType returnType;
-	Scope body;
+	private Scope body;
+
+	// Lazy bodies are parsed from their token range on first access
+	TokenStream tokens;
+	int bodyStart = -1; // Token index of the body's {
+
+	// Set by checkSignature for checkBody
+	Scope enclosing;
+	Type[] argTypes;
+	int visible;
 
 	public void check(Scope previous) throws LanguageException{
-		if(this.body.env == null){
-			this.body.env = new Environment();
+		checkSignature(previous);
+		checkBody();
+	}
+
+	synchronized Scope body() throws LanguageException {
+		if(body == null){
+			var parser = new Parser(tokens);
+			parser.current = bodyStart;
+			body = parser.parseScope();
 		}
+		return body;
+	}
 
-		this.body.parent = previous;
+	boolean isParsed(){
+		return body != null;
+	}
 
+	// Defines the function itself without touching the body, which only sees the symbols of previous
+	// defined up to this point
+	void checkSignature(Scope previous) throws LanguageException{
 		var returnType = Type.fromPrimitiveParserType(this.returnType);
 
 		var parserTypes = this.parameters.types();
 		var ids = this.parameters.ids();
 
-		var argTypes = new Type[ids.length];
+		argTypes = new Type[ids.length];
 		for(int i = 0; i < parserTypes.length; i++){
 			var t = Type.fromPrimitiveParserType(parserTypes[i]);
 			argTypes[i] = t;
-			body.defineSymbol(ids[i], SymbolInfo.parameter(t));
+			// Same check defineSymbol does once the parameters are added to the body
+			var clash = previous.searchSymbol(ids[i]) != null;
+			for(int j = 0; j < i; j++){
+				clash = clash || ids[j] == ids[i];
+			}
+			if(clash){
+				throw LanguageException.checkerError("Symbol %s is already defined", Names.name(ids[i]));
+			}
 		}
 		var funcInfo = SymbolInfo.function(returnType, argTypes);
 
-		body.parent.defineSymbol(this.name, funcInfo);
-		body.check(this.body.parent);
+		previous.defineSymbol(this.name, funcInfo);
+		enclosing = previous;
+		visible = previous.symbolCount();
 	}
 
-	public record ParameterList (ParserType[] types, String[] identifiers){
+	void checkBody() throws LanguageException{
+		var body = body();
+		var ids = this.parameters.ids();
+		for(int i = 0; i < ids.length; i++){
+			body.addSymbol(ids[i], SymbolInfo.parameter(argTypes[i]));
+		}
+		body.parentVisible = visible;
+		body.check(enclosing);
+	}
+
+	public record ParameterList (ParserType[] types, int[] identifiers){
 		public String toString(){
 			if(types.length == 0){
 				return "()";
@@ -43,7 +100,7 @@ final class FuncDef implements Statement {
 			var sb = new StringBuilder();
 			sb.append("(");
 			for(int i = 0; i < types.length; i ++){
-				sb.append(String.format("%s: %s, ", identifiers[i].toString(), types[i].toString()));
+				sb.append(String.format("%s: %s, ", Names.name(identifiers[i]), types[i].toString()));
 			}
 			sb.setLength(sb.length() - 1);
 			sb.append(")");
@@ -53,27 +110,33 @@ final class FuncDef implements Statement {
  			return this.types;
 		}
 
-		public String[] ids(){
+		public int[] ids(){
   			return this.identifiers;
 		}
 	}
 
 	public String toString(){
 		var sb = new StringBuilder();
-		sb.append("fn " + name);
+		sb.append("fn " + Names.name(name));
 		sb.append(parameters.toString());
 		sb.append(" -> " + returnType.toString());
-		sb.append(body.toString());
+		sb.append(body != null ? body.toString() : "{ ... }");
 		return sb.toString();
 	}
 
-	FuncDef(String name, ParameterList params, ParserType returnType, Scope body){
+	FuncDef(int name, ParameterList params, ParserType returnType, Scope body){
 		this.name = name;
 		this.parameters = params;
 		this.returnType = returnType;
 		this.body = body;
 	}
 
+	FuncDef(int name, ParameterList params, ParserType returnType, TokenStream tokens, int bodyStart){
+		this(name, params, returnType, null);
+		this.tokens = tokens;
+		this.bodyStart = bodyStart;
+	}
+
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException {
 		throw new UnsupportedOperationException("Unimplemented method 'genIR'");
 	}
@@ -85,14 +148,7 @@ final class IfStmt implements Statement {
 	Statement elseBranch; // NOTE: Can *only* be Scope(else) OR another If
 
 	public void check(Scope previous) throws LanguageException{
-		if(this.body.env == null){
-			this.body.env = new Environment();
-		}
-		
-		var ok = this.condition.evalType(previous).equals(new Type(PrimitiveType.BOOL, null));
-		if(!ok){
-			throw LanguageException.checkerError("Condition must be of boolean type");
-		}
+		checkCondition(previous);
 		
 		this.body.parent = previous;
 		this.body.check(previous);
@@ -102,6 +158,18 @@ final class IfStmt implements Statement {
 		}
 	}
 
+	void checkCondition(Scope previous) throws LanguageException{
+		var ok = this.condition.evalType(previous).equals(Type.of(PrimitiveType.BOOL));
+		if(!ok){
+			throw LanguageException.checkerError("Condition must be of boolean type");
+		}
+	}
+
+	public void checkAndGenIR(Scope previous, IRBuilder builder) throws LanguageException{
+		checkCondition(previous);
+		genIR(previous, builder, true);
+	}
+
 	IfStmt(Expression cond, Scope body, Statement elseBranch){
 		assert(elseBranch instanceof Scope || elseBranch instanceof IfStmt || this.elseBranch == null);
 		this.condition = cond;
@@ -123,32 +191,31 @@ final class IfStmt implements Statement {
 	}
 
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException {
-		var labelId = builder.getUniqueIDLabel();
+		genIR(context, builder, false);
+	}
 
-		String entry_label = String.format("IF_%d", labelId);
-		String elseLabel = String.format("ELSE_%d", labelId);
-		String exit_label = String.format("ENDIF_%d", labelId);
+	void genIR(Scope context, IRBuilder builder, boolean check) throws LanguageException {
+		var cond = ConstantFolder.fold(condition);
+		var labelId = builder.getUniqueIDLabel();
 
-		builder.addInstruction(new Instruction(OpCode.LABEL, entry_label));// Miguel NOTE: It is not necessary, but helps to find where it starts
-		condition.genIR(context, builder);
+		int entry_label = builder.newLabel("IF", labelId);
+		int elseLabel = builder.newLabel("ELSE", labelId);
+		int exit_label = builder.newLabel("ENDIF", labelId);
 
-		if(elseBranch != null){
-			builder.addInstruction(new Instruction(OpCode.BRANCH_EQUAL_ZERO, elseLabel));
-		}else{
-			builder.addInstruction(new Instruction(OpCode.BRANCH_EQUAL_ZERO, exit_label));
-		}
+		builder.addInstruction(OpCode.LABEL, entry_label);// Miguel NOTE: It is not necessary, but helps to find where it starts
+		Expression.genBranch(cond, context, builder, elseBranch != null ? elseLabel : exit_label, false);
 
-		body.genIR(context, builder);
+		Statement.genIR(body, context, builder, check);
 
-		builder.addInstruction(new Instruction(OpCode.JUMP, exit_label));
+		builder.addInstruction(OpCode.JUMP, exit_label);
 
 		if (elseBranch != null){
-			builder.addInstruction(new Instruction(OpCode.LABEL, elseLabel));
-			elseBranch.genIR(context, builder);
-			builder.addInstruction(new Instruction(OpCode.JUMP, exit_label));
+			builder.addInstruction(OpCode.LABEL, elseLabel);
+			Statement.genIR(elseBranch, context, builder, check);
+			builder.addInstruction(OpCode.JUMP, exit_label);
 		}
 
-		builder.addInstruction(new Instruction(OpCode.LABEL, exit_label));
+		builder.addInstruction(OpCode.LABEL, exit_label);
 	}
 }
 
@@ -159,16 +226,25 @@ final class ForStmt implements Statement{
 	Scope body;
 
 	public void check(Scope previous) throws LanguageException{// Miguel TODO: Maybe let use variable or null in first
+		checkHeader(previous);
 		this.body.check(previous);
+	}
 
+	// Same order as the fused pass, which has to check first before the body is emitted
+	void checkHeader(Scope previous) throws LanguageException{
+		this.body.parent = previous;
 		this.first.check(body);
-		this.after.check(previous);
 
-		var ok = this.condition.evalType(previous).equals(new Type(PrimitiveType.BOOL, null));
+		var ok = this.condition.evalType(previous).equals(Type.of(PrimitiveType.BOOL));
 		if(!ok){
 			throw LanguageException.checkerError("Condition must be of boolean type");
 		}
-		this.body.parent = previous;
+		this.after.check(previous);
+	}
+
+	public void checkAndGenIR(Scope previous, IRBuilder builder) throws LanguageException{
+		checkHeader(previous);
+		genIR(previous, builder, true);
 	}
 	ForStmt(Statement first, Expression condition, Statement after, Scope body){
 		assert(first instanceof VarDecl || first instanceof VarAssign);
@@ -193,27 +269,27 @@ final class ForStmt implements Statement{
 		return sb.toString();
 	}
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException {
+		genIR(context, builder, false);
+	}
+
+	void genIR(Scope context, IRBuilder builder, boolean check) throws LanguageException {
+		var cond = ConstantFolder.fold(condition);
 		var id = builder.getUniqueIDLabel();
-		String entry_label = String.format("FOR_%d", id);
-		String check_label = String.format("CHECKFOR_%d", id);
-		String body_label = String.format("BODYFOR_%d", id);
-		String exit_label = String.format("ENDFOR_%d", id);
+		int entry_label = builder.newLabel("FOR", id);
+		int body_label = builder.newLabel("BODYFOR", id);
+		int exit_label = builder.newLabel("ENDFOR", id);
 
-		builder.addInstruction(new Instruction(OpCode.LABEL, entry_label));
+		// Rotated, the guard skips the loop and every iteration ends with a single branch back
+		builder.addInstruction(OpCode.LABEL, entry_label);
 		first.genIR(context, builder);
-		condition.genIR(context, builder);
-		builder.addInstruction(new Instruction(OpCode.BRANCH_NOT_ZERO, body_label));
+		Expression.genBranch(cond, context, builder, exit_label, false);
 
-		builder.addInstruction(new Instruction(OpCode.LABEL, check_label));
-		condition.genIR(context, builder);
-		builder.addInstruction(new Instruction(OpCode.BRANCH_EQUAL_ZERO, exit_label));
-		
-		builder.addInstruction(new Instruction(OpCode.LABEL, body_label));
-		this.body.genIR(context, builder);
+		builder.addInstruction(OpCode.LABEL, body_label);
+		Statement.genIR(body, context, builder, check);
 		after.genIR(context, builder);
-		builder.addInstruction(new Instruction(OpCode.JUMP, check_label));
+		Expression.genBranch(cond, context, builder, body_label, true);
 
-		builder.addInstruction(new Instruction(OpCode.LABEL, exit_label));
+		builder.addInstruction(OpCode.LABEL, exit_label);
 	}
 }
 
@@ -222,14 +298,23 @@ final class DoStmt implements Statement {
 	Scope body;
 
 	public void check(Scope previous) throws LanguageException{
-		var ok = this.condition.evalType(previous).equals(new Type(PrimitiveType.BOOL, null));
-		if(!ok){
-			throw LanguageException.checkerError("Condition must be of boolean type");
-		}
+		checkCondition(previous);
 		
 		this.body.parent = previous;
 		this.body.check(previous);
 	}
+
+	void checkCondition(Scope previous) throws LanguageException{
+		var ok = this.condition.evalType(previous).equals(Type.of(PrimitiveType.BOOL));
+		if(!ok){
+			throw LanguageException.checkerError("Condition must be of boolean type");
+		}
+	}
+
+	public void checkAndGenIR(Scope previous, IRBuilder builder) throws LanguageException{
+		checkCondition(previous);
+		genIR(previous, builder, true);
+	}
 	DoStmt(Expression cond, Scope body){
 		this.condition = cond;
 		this.body = body;
@@ -244,19 +329,21 @@ final class DoStmt implements Statement {
 		return sb.toString();
 	}
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException {
+		genIR(context, builder, false);
+	}
+
+	void genIR(Scope context, IRBuilder builder, boolean check) throws LanguageException {
+		var cond = ConstantFolder.fold(condition);
 		var id = builder.getUniqueIDLabel();
-		String entry_label = String.format("WHILE_%d", id);
-		String exit_label = String.format("ENDWHILE_%d", id);
+		int entry_label = builder.newLabel("WHILE", id);
+		int exit_label = builder.newLabel("ENDWHILE", id);
 
-		builder.addInstruction(new Instruction(OpCode.LABEL, entry_label));
-		body.genIR(context, builder);
+		builder.addInstruction(OpCode.LABEL, entry_label);
+		Statement.genIR(body, context, builder, check);
 
-		condition.genIR(context, builder);
-		
-		builder.addInstruction(new Instruction(OpCode.BRANCH_EQUAL_ZERO, exit_label));
-		builder.addInstruction(new Instruction(OpCode.JUMP, entry_label));
-		
-		builder.addInstruction(new Instruction(OpCode.LABEL, exit_label));
+		Expression.genBranch(cond, context, builder, entry_label, true);
+
+		builder.addInstruction(OpCode.LABEL, exit_label);
 	}
 
 }
@@ -266,14 +353,23 @@ final class WhileStmt implements Statement {
 	Scope body;
 
 	public void check(Scope previous) throws LanguageException{
-		var ok = this.condition.evalType(previous).equals(new Type(PrimitiveType.BOOL, null));
-		if(!ok){
-			throw LanguageException.checkerError("Condition must be of boolean type");
-		}
+		checkCondition(previous);
 		
 		this.body.parent = previous;
 		this.body.check(previous);
 	}
+
+	void checkCondition(Scope previous) throws LanguageException{
+		var ok = this.condition.evalType(previous).equals(Type.of(PrimitiveType.BOOL));
+		if(!ok){
+			throw LanguageException.checkerError("Condition must be of boolean type");
+		}
+	}
+
+	public void checkAndGenIR(Scope previous, IRBuilder builder) throws LanguageException{
+		checkCondition(previous);
+		genIR(previous, builder, true);
+	}
 	WhileStmt(Expression cond, Scope body){
 		this.condition = cond;
 		this.body = body;
@@ -288,19 +384,25 @@ final class WhileStmt implements Statement {
 		return sb.toString();
 	}
 	public void genIR(Scope context, IRBuilder builder) throws LanguageException {
+		genIR(context, builder, false);
+	}
+
+	void genIR(Scope context, IRBuilder builder, boolean check) throws LanguageException {
+		var cond = ConstantFolder.fold(condition);
 		var id = builder.getUniqueIDLabel();
-		String entry_label = String.format("WHILE_%d", id);
-		String exit_label = String.format("ENDWHILE_%d", id);
+		int entry_label = builder.newLabel("WHILE", id);
+		int body_label = builder.newLabel("BODYWHILE", id);
+		int exit_label = builder.newLabel("ENDWHILE", id);
 
-		builder.addInstruction(new Instruction(OpCode.LABEL, entry_label));
-		condition.genIR(context, builder);
-		
-		builder.addInstruction(new Instruction(OpCode.BRANCH_EQUAL_ZERO, exit_label));
+		// Rotated, the guard skips the loop and every iteration ends with a single branch back
+		builder.addInstruction(OpCode.LABEL, entry_label);
+		Expression.genBranch(cond, context, builder, exit_label, false);
 
-		body.genIR(context, builder);
-		builder.addInstruction(new Instruction(OpCode.JUMP, entry_label));
-		
-		builder.addInstruction(new Instruction(OpCode.LABEL, exit_label));
+		builder.addInstruction(OpCode.LABEL, body_label);
+		Statement.genIR(body, context, builder, check);
+		Expression.genBranch(cond, context, builder, body_label, true);
+
+		builder.addInstruction(OpCode.LABEL, exit_label);
 	}
 
 }
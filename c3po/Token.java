@@ -9,6 +9,7 @@ public class Token {
 	int intValue;
 	String stringValue;
 	char charValue;
+	int name = -1; // Interned id of identifiers
 
 	public String toString(){
 		if(hasNonTrivialLexeme()){
@@ -37,6 +38,10 @@ public class Token {
 	}
 
 	boolean isPrimary(){
+		return isPrimary(type);
+	}
+
+	static boolean isPrimary(TokenType type){
 		return type == TokenType.ID
 			|| type == TokenType.STRING
 			|| type == TokenType.INTEGER
@@ -0,0 +1,186 @@
+package c3po;
+
+import java.util.*;
+
+// Tokens stored as parallel arrays instead of one Token object each. A token is identified by its index,
+// its text is source[start, start + length). The value slot holds the literal: the int itself, the float
+// bits, the char, or an index into the string literal pool. For identifiers it holds the Names id.
+public class TokenStream {
+	static final TokenType[] tokenTypes = TokenType.values();
+
+	final CharSequence source;
+	final boolean stripComments;
+	int[] types;
+	int[] starts;
+	int[] lengths;
+	int[] values;
+	int count;
+
+	String[] strings;
+	int stringCount;
+
+	// The capacity is guessed from the number of chars that will be lexed into the stream
+	TokenStream(CharSequence source, boolean stripComments, int chars){
+		this.source = source;
+		this.stripComments = stripComments;
+		int capacity = Math.max(64, Math.min(chars / 4, 1 << 20));
+		types = new int[capacity];
+		starts = new int[capacity];
+		lengths = new int[capacity];
+		values = new int[capacity];
+		strings = new String[16];
+	}
+
+	void reserve(int capacity){
+		if(capacity > types.length){
+			capacity = Math.max(capacity, types.length * 2);
+			types = Arrays.copyOf(types, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+
+	void add(TokenType type, int start, int length, int value){
+		reserve(count + 1);
+		types[count] = type.ordinal();
+		starts[count] = start;
+		lengths[count] = length;
+		values[count] = value;
+		count += 1;
+	}
+
+	// Appends the token the lexer just scanned
+	void add(Lexer lex, TokenType type){
+		int value = 0;
+		switch(type){
+			case INTEGER: value = lex.intValue; break;
+			case FLOAT: value = Float.floatToRawIntBits(lex.realValue); break;
+			case CHAR: value = lex.charValue; break;
+			case STRING: value = addString(lex.stringValue); break;
+			case ID: value = Names.intern(lex.source, lex.start, lex.current); break;
+			default: break;
+		}
+		add(type, lex.start, lex.current - lex.start, value);
+	}
+
+	int addString(String s){
+		if(stringCount == strings.length){
+			strings = Arrays.copyOf(strings, stringCount * 2);
+		}
+		strings[stringCount] = s;
+		stringCount += 1;
+		return stringCount - 1;
+	}
+
+	// Copies tokens [from, to) of another stream, moving their offsets by delta
+	void addRange(TokenStream other, int from, int to, int delta){
+		int n = to - from;
+		reserve(count + n);
+		System.arraycopy(other.types, from, types, count, n);
+		System.arraycopy(other.starts, from, starts, count, n);
+		System.arraycopy(other.lengths, from, lengths, count, n);
+		System.arraycopy(other.values, from, values, count, n);
+
+		for(int i = count; i < count + n; i++){
+			starts[i] += delta;
+			if(types[i] == TokenType.STRING.ordinal()){
+				values[i] = addString(other.strings[values[i]]);
+			}
+		}
+		count += n;
+	}
+
+	// Index of the first token starting at or after offset, searching from index `from`
+	int indexAtOrAfter(int offset, int from){
+		int lo = from;
+		int hi = count;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(starts[mid] < offset){
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	public int size(){
+		return count;
+	}
+
+	TokenType type(int i){
+		return tokenTypes[types[i]];
+	}
+
+	int start(int i){
+		return starts[i];
+	}
+
+	int length(int i){
+		return lengths[i];
+	}
+
+	int intValue(int i){
+		return values[i];
+	}
+
+	float realValue(int i){
+		return Float.intBitsToFloat(values[i]);
+	}
+
+	char charValue(int i){
+		return (char)values[i];
+	}
+
+	int name(int i){
+		return values[i];
+	}
+
+	String stringValue(int i){
+		return strings[values[i]];
+	}
+
+	String lexeme(int i){
+		int start = starts[i];
+		if(type(i) == TokenType.COMMENT){
+			start += 2; // Skip the //
+		}
+		return source.subSequence(start, starts[i] + lengths[i]).toString();
+	}
+
+	// Materializes a token object, only needed where the AST keeps the token around
+	Token get(int i){
+		var type = type(i);
+		switch(type){
+			case INTEGER: return new Token(type, lexeme(i), intValue(i));
+			case FLOAT: return new Token(type, lexeme(i), realValue(i));
+			case STRING: return new Token(type, lexeme(i), stringValue(i));
+			case CHAR: return new Token(type, lexeme(i), charValue(i));
+			case ID: {
+				var token = new Token(type, lexeme(i));
+				token.name = name(i);
+				return token;
+			}
+			default: {
+				if(type == TokenType.COMMENT || type.isKeyword()){
+					return new Token(type, lexeme(i));
+				}
+				return new Token(type);
+			}
+		}
+	}
+
+	public List<Token> toList(){
+		var list = new ArrayList<Token>(count);
+		for(int i = 0; i < count; i++){
+			list.add(get(i));
+		}
+		return list;
+	}
+
+	public String toString(){
+		return toList().toString();
+	}
+}
@@ -22,12 +22,15 @@ enum TokenType {
 	LOGIC_AND("&&"), LOGIC_OR("||"), LOGIC_NOT("!"),
 	GT(">"), LT("<"), GT_EQ(">="), LT_EQ("<="), NEQ("!="), EQ("=="),
 
-	EOF("<End of file>"),
-	WS("<Space>");
+	EOF("<End of file>");
 
 	public String value;
 
 	TokenType(String v){
 		value = v;
 	}
+
+	boolean isKeyword(){
+		return ordinal() >= IF.ordinal() && ordinal() <= INPUT.ordinal();
+	}
 }
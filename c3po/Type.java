@@ -1,5 +1,7 @@
 package c3po;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 enum PrimitiveType {
 	INT("int"), FLOAT("float"), STRING("string"), CHAR("char"), BOOL("bool"), VOID("void");
 
@@ -10,12 +12,16 @@ enum PrimitiveType {
 	}
 }
 
+// Qualifiers are interned, there is one pointer qualifier and one array qualifier per size
 class Qualifier {
 	static final char ARRAY = 'A';
 	static final char POINTER = 'P';
 
-	char kind;
-	int size;
+	private static final Qualifier pointer = new Qualifier('P');
+	private static final ConcurrentHashMap<Integer, Qualifier> arrays = new ConcurrentHashMap<>();
+
+	final char kind;
+	final int size;
 
 	private Qualifier(char kind, int size){
 		this.kind = kind;
@@ -23,21 +29,82 @@ class Qualifier {
 	}
 
 	private Qualifier(char kind){
-		this.kind = kind;
+		this(kind, 0);
 	}
 
 	static Qualifier pointer(){
-		return new Qualifier('P');
+		return pointer;
 	}
 
 	static Qualifier array(int n){
-		return new Qualifier('A', n);
+		return arrays.computeIfAbsent(n, size -> new Qualifier('A', size));
 	}
 }
 
+// Types are hash-consed: every (primitive, qualifiers) pair exists once, so types are compared by reference.
+// They form a trie rooted at the primitives, a type's children are the types that add one more qualifier
+// in front of its own.
 class Type {
-	PrimitiveType primitive;
-	Qualifier[] quals;
+	private static final Type[] primitives = new Type[PrimitiveType.values().length];
+	static {
+		for(var p : PrimitiveType.values()){
+			primitives[p.ordinal()] = new Type(p, new Qualifier[0], null);
+		}
+	}
+
+	final PrimitiveType primitive;
+	final Qualifier[] quals; // NOTE: Shared, never modify it
+	final Type inner; // This type without its first qualifier, null for primitives
+	private final ConcurrentHashMap<Qualifier, Type> derived = new ConcurrentHashMap<>();
+	private volatile Type withoutLast;
+
+	private Type(PrimitiveType primitive, Qualifier[] quals, Type inner){
+		this.primitive = primitive;
+		this.quals = quals;
+		this.inner = inner;
+	}
+
+	static Type of(PrimitiveType primitive){
+		return primitives[primitive.ordinal()];
+	}
+
+	static Type of(PrimitiveType primitive, Qualifier[] quals){
+		var t = of(primitive);
+		if(quals == null){
+			return t;
+		}
+		for(int i = quals.length - 1; i >= 0; i--){
+			t = t.qualified(quals[i]);
+		}
+		return t;
+	}
+
+	// The type with q in front of this type's qualifiers
+	Type qualified(Qualifier q){
+		var t = derived.get(q);
+		if(t != null){
+			return t;
+		}
+		return derived.computeIfAbsent(q, key -> {
+			var quals = new Qualifier[this.quals.length + 1];
+			quals[0] = key;
+			System.arraycopy(this.quals, 0, quals, 1, this.quals.length);
+			return new Type(primitive, quals, this);
+		});
+	}
+
+	// The type with its last qualifier removed, cached since it is asked for on every index expression
+	Type withoutLastQualifier(){
+		var t = withoutLast;
+		if(t == null){
+			t = of(primitive);
+			for(int i = quals.length - 2; i >= 0; i--){
+				t = t.qualified(quals[i]);
+			}
+			withoutLast = t;
+		}
+		return t;
+	}
 
 	public int dataSize() throws LanguageException{
 		var primitiveDataSize = 0;
@@ -100,17 +167,7 @@ class Type {
 	}
 
 	public boolean equals(Type other){
-		if(this.primitive != other.primitive || this.quals.length != other.quals.length){
-			return false;
-		}
-
-		for(int i = 0; i < quals.length; i ++){
-			if(this.quals[i] != other.quals[i]){
-				return false;
-			}
-		}
-
-		return true;
+		return this == other;
 	}
 
 	public String toString(){
@@ -133,22 +190,13 @@ class Type {
 		return sb.toString();
 	}
 	
-	public Type(PrimitiveType primitive, Qualifier[] quals){
-		this.primitive = primitive;
-		this.quals = quals;
-
-		if(this.quals == null){
-			this.quals = new Qualifier[0];
-		}
-	}
-
 	public static Type fromPrimitiveParserType(ParserType typeExpr) throws LanguageException{
 		for(var primType : PrimitiveType.values()){
 			if(primType.value.equals(typeExpr.name)){
-				return new Type(primType, typeExpr.quals);
+				return Type.of(primType, typeExpr.quals);
 			}
 		}
-		throw LanguageException.checkerError(String.format("Not a builtin type: %s", typeExpr.name));
+		throw LanguageException.checkerError("Not a builtin type: %s", typeExpr.name);
 	}
 }
 
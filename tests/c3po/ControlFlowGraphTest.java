@@ -0,0 +1,121 @@
+package c3po;
+
+import java.util.Arrays;
+
+// Builds small programs by hand, so the block ids below follow the instruction layout
+public class ControlFlowGraphTest {
+	static void expect(boolean ok, String what){
+		if(!ok){
+			throw new AssertionError(what);
+		}
+	}
+
+	static void nestedLoops(){
+		var builder = new IRBuilder();
+		int outer = builder.newLabel("OUTER", 1);
+		int inner = builder.newLabel("INNER", 1);
+		int next = builder.newLabel("NEXT", 1);
+		int end = builder.newLabel("END", 1);
+		builder.addInstruction(OpCode.PUSH, 1); // B0
+		builder.addInstruction(OpCode.POP);
+		builder.addInstruction(OpCode.LABEL, outer); // B1, outer header
+		builder.addInstruction(OpCode.PUSH, 1);
+		builder.addInstruction(OpCode.BRANCH_EQUAL_ZERO, end);
+		builder.addInstruction(OpCode.LABEL, inner); // B2, inner header
+		builder.addInstruction(OpCode.PUSH, 1);
+		builder.addInstruction(OpCode.BRANCH_EQUAL_ZERO, next);
+		builder.addInstruction(OpCode.JUMP, inner); // B3, inner latch
+		builder.addInstruction(OpCode.LABEL, next); // B4, outer latch
+		builder.addInstruction(OpCode.JUMP, outer);
+		builder.addInstruction(OpCode.LABEL, end); // B5
+		builder.addInstruction(OpCode.PUSH, 2);
+		builder.addInstruction(OpCode.POP);
+
+		var cfg = ControlFlowGraph.build(builder.build());
+		var b = cfg.blocks;
+		expect(b.length == 6, "six blocks");
+		expect(cfg.entry() == b[0] && b[0].idom == null, "B0 is the entry");
+		expect(cfg.blockOfLabel(inner) == b[2], "INNER starts B2");
+		expect(b[0].succs.equals(Arrays.asList(b[1])), "B0 falls into B1");
+		expect(b[1].preds.size() == 2 && b[1].preds.contains(b[4]), "B1 is reached from B0 and B4");
+		expect(b[3].succs.equals(Arrays.asList(b[2])), "B3 jumps back to B2");
+
+		expect(b[1].idom == b[0] && b[2].idom == b[1] && b[3].idom == b[2], "idom along the loop headers");
+		expect(b[4].idom == b[2] && b[5].idom == b[1], "idom of the latch and the exit");
+		expect(cfg.dominates(b[1], b[4]) && !cfg.dominates(b[3], b[4]), "dominates");
+		expect(cfg.dominates(b[2], b[2]), "a block dominates itself");
+
+		expect(cfg.loops.length == 2, "two loops");
+		var outerLoop = cfg.loops[0];
+		var innerLoop = cfg.loops[1];
+		expect(outerLoop.header == b[1] && innerLoop.header == b[2], "loop headers");
+		expect(outerLoop.parent == null && innerLoop.parent == outerLoop, "Loop.parent");
+		expect(outerLoop.blocks.toString().equals("{1, 2, 3, 4}"), "outer loop body");
+		expect(innerLoop.blocks.toString().equals("{2, 3}"), "inner loop body");
+		var depths = new int[b.length];
+		for(int i = 0; i < b.length; i++){
+			depths[i] = b[i].loopDepth();
+		}
+		expect(Arrays.equals(depths, new int[]{0, 1, 2, 2, 1, 0}), "loopDepth");
+		expect(b[3].loop == innerLoop && b[4].loop == outerLoop, "innermost loop of a block");
+	}
+
+	static void emptyProgram(){
+		var cfg = ControlFlowGraph.build(new IRBuilder().build());
+		expect(cfg.blocks.length == 1, "a single block");
+		var entry = cfg.entry();
+		expect(entry.start == 0 && entry.end == 0, "the entry is empty");
+		expect(entry.preds.isEmpty() && entry.succs.isEmpty(), "no edges");
+		expect(cfg.reversePostorder.length == 1 && entry.order == 0, "the entry is reachable");
+		expect(cfg.loops.length == 0, "no loops");
+	}
+
+	static void startsWithLabel(){
+		var builder = new IRBuilder();
+		int top = builder.newLabel("WHILE", 1);
+		builder.addInstruction(OpCode.LABEL, top);
+		builder.addInstruction(OpCode.PUSH, 1);
+		builder.addInstruction(OpCode.BRANCH_NOT_ZERO, top);
+
+		var cfg = ControlFlowGraph.build(builder.build());
+		var b = cfg.blocks;
+		expect(b.length == 2, "an entry block is added before the label");
+		expect(b[0].start == 0 && b[0].end == 0, "the added entry is empty");
+		expect(b[0].preds.isEmpty(), "the entry has no predecessors");
+		expect(b[0].succs.equals(Arrays.asList(b[1])), "the entry falls into the label");
+		expect(b[1].preds.contains(b[0]) && b[1].preds.contains(b[1]), "the loop branches back to itself");
+		expect(b[1].idom == b[0], "the label block is dominated by the entry");
+		expect(cfg.loops.length == 1 && cfg.loops[0].header == b[1], "a loop at the label");
+		expect(b[0].loopDepth() == 0 && b[1].loopDepth() == 1, "the entry is outside the loop");
+	}
+
+	static void unreachableBlock(){
+		var builder = new IRBuilder();
+		int skip = builder.newLabel("SKIP", 1);
+		builder.addInstruction(OpCode.PUSH, 1); // B0
+		builder.addInstruction(OpCode.POP);
+		builder.addInstruction(OpCode.JUMP, skip);
+		builder.addInstruction(OpCode.PUSH, 7); // B1, nothing reaches it
+		builder.addInstruction(OpCode.POP);
+		builder.addInstruction(OpCode.LABEL, skip); // B2
+		builder.addInstruction(OpCode.PUSH, 0);
+		builder.addInstruction(OpCode.POP);
+
+		var cfg = ControlFlowGraph.build(builder.build());
+		var b = cfg.blocks;
+		expect(b.length == 3, "three blocks");
+		expect(b[1].order == -1 && b[1].idom == null, "B1 is unreachable");
+		expect(cfg.reversePostorder.length == 2, "the order skips B1");
+		expect(!Arrays.asList(cfg.reversePostorder).contains(b[1]), "B1 is not in the order");
+		expect(b[2].idom == b[0], "B2 is dominated by the entry only");
+		expect(!cfg.dominates(b[0], b[1]), "nothing dominates an unreachable block");
+		expect(b[1].loopDepth() == 0, "B1 is in no loop");
+	}
+
+	public static void main(String[] args){
+		nestedLoops();
+		emptyProgram();
+		startsWithLabel();
+		unreachableBlock();
+	}
+}
@@ -0,0 +1,178 @@
+package c3po;
+
+import java.util.EnumSet;
+
+// Runs the rules one at a time over small programs built by hand
+public class PeepholeTest {
+	static void expect(boolean ok, String what){
+		if(!ok){
+			throw new AssertionError(what);
+		}
+	}
+
+	static String run(Peephole peephole, IRBuilder builder){
+		var program = peephole.run(builder.build());
+		var sb = new StringBuilder();
+		for(int i = 0; i < program.length; i++){
+			if(i > 0){
+				sb.append("; ");
+			}
+			sb.append(program.instructionString(i));
+		}
+		return sb.toString();
+	}
+
+	static String run(Peephole.Rule rule, IRBuilder builder){
+		return run(new Peephole(EnumSet.of(rule)), builder);
+	}
+
+	static void expectCode(String actual, String expected, String what){
+		expect(actual.equals(expected), what + ": expected '" + expected + "', got '" + actual + "'");
+	}
+
+	static SymbolInfo variable(IRBuilder builder) throws LanguageException {
+		var info = SymbolInfo.variable(Type.of(PrimitiveType.INT));
+		info.name = Names.intern("x");
+		builder.addSymbol(info);
+		return info;
+	}
+
+	static void fuseSymbols() throws LanguageException {
+		// x = x + 1, the store address is pushed before the value
+		var builder = new IRBuilder();
+		var x = variable(builder);
+		builder.pushSymbol(x);
+		builder.pushSymbol(x);
+		builder.addInstruction(OpCode.LOAD);
+		builder.addInstruction(OpCode.PUSH, 1);
+		builder.addInstruction(OpCode.ADD);
+		builder.addInstruction(OpCode.STORE);
+		var peephole = new Peephole(EnumSet.of(Peephole.Rule.FUSE_SYMBOLS));
+		expectCode(run(peephole, builder), "load_symbol v_x_1; push 1; add; store_symbol v_x_1", "FUSE_SYMBOLS");
+		expect(peephole.removed() == 2, "FUSE_SYMBOLS removes both address pushes");
+
+		// An address pushed before a label is not fused
+		builder = new IRBuilder();
+		x = variable(builder);
+		int label = builder.newLabel("L", 1);
+		builder.pushSymbol(x);
+		builder.addInstruction(OpCode.LABEL, label);
+		builder.addInstruction(OpCode.PUSH, 1);
+		builder.addInstruction(OpCode.STORE);
+		expectCode(run(Peephole.Rule.FUSE_SYMBOLS, builder), "push_symbol v_x_1; L_1:; push 1; store", "FUSE_SYMBOLS across a label");
+	}
+
+	static void forwardStores() throws LanguageException {
+		var builder = new IRBuilder();
+		var x = variable(builder);
+		builder.pushSymbol(x);
+		builder.addInstruction(OpCode.PUSH, 5);
+		builder.addInstruction(OpCode.STORE);
+		builder.pushSymbol(x);
+		builder.addInstruction(OpCode.LOAD);
+		builder.addInstruction(OpCode.PRINT_INT);
+		var peephole = new Peephole(EnumSet.of(Peephole.Rule.FUSE_SYMBOLS, Peephole.Rule.FORWARD_STORES));
+		expectCode(run(peephole, builder), "push 5; dup; store_symbol v_x_1; print_int", "FORWARD_STORES");
+	}
+
+	static void deadPushes(){
+		var builder = new IRBuilder();
+		builder.addInstruction(OpCode.PUSH, 3);
+		builder.addInstruction(OpCode.POP);
+		builder.addInstruction(OpCode.PUSH, 4);
+		builder.addInstruction(OpCode.PRINT_INT);
+		expectCode(run(Peephole.Rule.DEAD_PUSHES, builder), "push 4; print_int", "DEAD_PUSHES");
+	}
+
+	static void unreachable(){
+		var builder = new IRBuilder();
+		int label = builder.newLabel("L", 1);
+		builder.addInstruction(OpCode.JUMP, label);
+		builder.addInstruction(OpCode.PUSH, 1);
+		builder.addInstruction(OpCode.PRINT_INT);
+		builder.addInstruction(OpCode.LABEL, label);
+		builder.addInstruction(OpCode.PUSH, 2);
+		builder.addInstruction(OpCode.PRINT_INT);
+		expectCode(run(Peephole.Rule.UNREACHABLE, builder), "jump L_1; L_1:; push 2; print_int", "UNREACHABLE");
+	}
+
+	static void threadJumps(){
+		var builder = new IRBuilder();
+		int a = builder.newLabel("A", 1);
+		int b = builder.newLabel("B", 1);
+		builder.addInstruction(OpCode.PUSH, 1);
+		builder.addInstruction(OpCode.BRANCH_NOT_ZERO, a);
+		builder.addInstruction(OpCode.PUSH, 2);
+		builder.addInstruction(OpCode.PRINT_INT);
+		builder.addInstruction(OpCode.LABEL, a);
+		builder.addInstruction(OpCode.JUMP, b);
+		builder.addInstruction(OpCode.LABEL, b);
+		expectCode(run(Peephole.Rule.THREAD_JUMPS, builder),
+			"push 1; branch_not_zero B_1; push 2; print_int; A_1:; jump B_1; B_1:", "THREAD_JUMPS");
+	}
+
+	static void invertBranches(){
+		var builder = new IRBuilder();
+		int then = builder.newLabel("THEN", 1);
+		int end = builder.newLabel("END", 1);
+		builder.addInstruction(OpCode.PUSH, 1);
+		builder.addInstruction(OpCode.BRANCH_EQUAL_ZERO, then);
+		builder.addInstruction(OpCode.JUMP, end);
+		builder.addInstruction(OpCode.LABEL, then);
+		builder.addInstruction(OpCode.PUSH, 2);
+		builder.addInstruction(OpCode.PRINT_INT);
+		builder.addInstruction(OpCode.LABEL, end);
+		expectCode(run(Peephole.Rule.INVERT_BRANCHES, builder),
+			"push 1; branch_not_zero END_1; THEN_1:; push 2; print_int; END_1:", "INVERT_BRANCHES");
+	}
+
+	static void jumpsToNext(){
+		var builder = new IRBuilder();
+		int a = builder.newLabel("A", 1);
+		int b = builder.newLabel("B", 1);
+		builder.addInstruction(OpCode.JUMP, a);
+		builder.addInstruction(OpCode.LABEL, a);
+		builder.addInstruction(OpCode.PUSH, 1);
+		builder.addInstruction(OpCode.BRANCH_NOT_ZERO, b);
+		builder.addInstruction(OpCode.LABEL, b);
+		// The branch falls through either way, only its condition is popped
+		expectCode(run(Peephole.Rule.JUMPS_TO_NEXT, builder), "A_1:; push 1; pop; B_1:", "JUMPS_TO_NEXT");
+	}
+
+	static void unusedLabels(){
+		var builder = new IRBuilder();
+		int used = builder.newLabel("USED", 1);
+		int unused = builder.newLabel("UNUSED", 1);
+		builder.addInstruction(OpCode.LABEL, unused);
+		builder.addInstruction(OpCode.LABEL, used);
+		builder.addInstruction(OpCode.PUSH, 0);
+		builder.addInstruction(OpCode.BRANCH_NOT_ZERO, used);
+		expectCode(run(Peephole.Rule.UNUSED_LABELS, builder), "USED_1:; push 0; branch_not_zero USED_1", "UNUSED_LABELS");
+	}
+
+	static void parse(){
+		expect(Peephole.Rule.parse("all").equals(EnumSet.allOf(Peephole.Rule.class)), "all");
+		expect(Peephole.Rule.parse("none").isEmpty(), "none");
+		var rules = Peephole.Rule.parse("fuse_symbols, UNUSED_LABELS");
+		expect(rules.equals(EnumSet.of(Peephole.Rule.FUSE_SYMBOLS, Peephole.Rule.UNUSED_LABELS)), "a list of rules");
+		try {
+			Peephole.Rule.parse("fuse_symbols,bogus");
+			expect(false, "an unknown rule is rejected");
+		}
+		catch(IllegalArgumentException e){
+			/* Expected, Main reports it */
+		}
+	}
+
+	public static void main(String[] args) throws LanguageException {
+		fuseSymbols();
+		forwardStores();
+		deadPushes();
+		unreachable();
+		threadJumps();
+		invertBranches();
+		jumpsToNext();
+		unusedLabels();
+		parse();
+	}
+}
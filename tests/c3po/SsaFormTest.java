@@ -0,0 +1,84 @@
+package c3po;
+
+// Compiles small sources the way Main does and looks at the program SsaForm returns for them
+public class SsaFormTest {
+	static void expect(boolean ok, String what){
+		if(!ok){
+			throw new AssertionError(what);
+		}
+	}
+
+	static Program compile(String source) throws LanguageException {
+		var tokens = Lexer.tokenizeStream("\n{\n" + source + "\n}\n", true);
+		var root = (Scope)Parser.parseLazy(tokens);
+		root.initAsGlobalScope();
+		var builder = new IRBuilder();
+		root.checkAndGenIR(null, builder);
+		return builder.build();
+	}
+
+	static int count(Program program, OpCode op){
+		int n = 0;
+		for(int i = 0; i < program.length; i++){
+			if(program.op(i) == op){
+				n += 1;
+			}
+		}
+		return n;
+	}
+
+	static boolean has(Program program, String instruction){
+		for(int i = 0; i < program.length; i++){
+			if(program.instructionString(i).equals(instruction)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static void constantBranch() throws LanguageException {
+		var program = compile("int x = 3; int y; if(x > 2){ y = 10; } else { y = 20; } print(y);");
+		var optimized = SsaForm.optimize(program);
+		expect(optimized != program, "the branch is optimized");
+		expect(count(optimized, OpCode.GT) == 0, "x > 2 is folded");
+		expect(count(optimized, OpCode.BRANCH_EQUAL_ZERO) == 0, "the branch is resolved");
+		expect(has(optimized, "push 10") && !has(optimized, "push 20"), "only the taken side is left");
+		expect(count(optimized, OpCode.STORE) == 0, "x and y live in values only");
+	}
+
+	static void deadStore() throws LanguageException {
+		var program = compile("int a = 5; a = 6; int b = 1; b = a + 2; print(a);");
+		expect(count(program, OpCode.STORE) == 4, "four stores before");
+		var optimized = SsaForm.optimize(program);
+		expect(count(optimized, OpCode.STORE) == 0, "the stores are dropped");
+		expect(!has(optimized, "push 5") && count(optimized, OpCode.ADD) == 0, "the overwritten and unread values are dropped");
+		expect(optimized.length == 2 && has(optimized, "push 6"), "only print(6) is left");
+	}
+
+	static void loopCarried() throws LanguageException {
+		var program = compile("int i = 0; int s = 0; while(i < 4){ s = s + i; i = i + 1; } print(s);");
+		var optimized = SsaForm.optimize(program);
+		expect(optimized != program, "the loop is optimized");
+		// i is 0 on entry, so the guard folds, but the phi of i at the header is not constant
+		expect(count(optimized, OpCode.BRANCH_EQUAL_ZERO) == 0, "the guard is resolved");
+		expect(count(optimized, OpCode.BRANCH_NOT_ZERO) == 1, "the back edge stays");
+		expect(count(optimized, OpCode.ADD) == 2, "both updates stay");
+		int print = optimized.length - 1;
+		expect(optimized.op(print) == OpCode.PRINT_INT && optimized.op(print - 1) == OpCode.LOAD, "s is printed from its slot");
+	}
+
+	static void unmodeledOp() throws LanguageException {
+		// Strings are read with INPUT_STR, which the analysis does not model
+		var program = compile("string s; input(s); int a = 2; int b = a * 3; print(b); print(s);");
+		var optimized = SsaForm.optimize(program);
+		expect(optimized == program, "the program is returned as is");
+		expect(count(optimized, OpCode.MUL) == 1, "a * 3 is not folded");
+	}
+
+	public static void main(String[] args) throws LanguageException {
+		constantBranch();
+		deadStore();
+		loopCarried();
+		unmodeledOp();
+	}
+}
@@ -0,0 +1,42 @@
+#!/usr/bin/env sh
+
+# Checks every tests/*.c3po and compares the failure with the "// expect: " line at its top. A test
+# starting with "// output: " is compiled and run in RARS instead, its printed lines joined by spaces.
+# Then runs the main of every tests/c3po/*Test.java, which throws when a check fails
+
+cd "$(dirname "$0")/.."
+out=$(mktemp -d)
+javac -encoding UTF-8 -d "$out" c3po/*.java tests/c3po/*.java || exit 1
+
+failed=0
+for test in tests/*.c3po; do
+	expected=$(sed -n '1s|^// output: ||p' "$test")
+	if [ -n "$expected" ]; then
+		actual=
+		java -cp "$out" c3po.Main compile "$test" > "$out/test.s" 2>/dev/null &&
+			actual=$(java -jar tools/RARSv1.6.jar nc "$out/test.s" 2>&1 | grep -v -e '^Warning' -e '^$' | tr '\n' ' ' | sed 's/ $//')
+		if [ "$actual" = "$expected" ]; then
+			echo "ok   $test"
+		else
+			echo "FAIL $test: expected '$expected', got '$actual'"; failed=1
+		fi
+		continue
+	fi
+	expected=$(sed -n '1s|^// expect: ||p' "$test")
+	actual=$(java -cp "$out" c3po.Main check "$test" 2>&1)
+	case "$actual" in
+		*"$expected"*) echo "ok   $test" ;;
+		*) echo "FAIL $test: expected '$expected', got '$actual'"; failed=1 ;;
+	esac
+done
+
+for test in tests/c3po/*Test.java; do
+	name=$(basename "$test" .java)
+	if actual=$(java -ea -cp "$out" "c3po.$name" 2>&1); then
+		echo "ok   $test"
+	else
+		echo "FAIL $test: $actual"; failed=1
+	fi
+done
+rm -rf "$out"
+exit $failed